@@ -0,0 +1,171 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Class that writes files to a tar or zip archive as they are added,
+ * without staging them anywhere first. Tar archives use the ustar
+ * format, with a pax header carrying the path of any file whose path
+ * does not fit in the ustar name and prefix fields.
+ */
+public class Archive {
+    private static final int BLOCK = 512;
+    private static final int NAME_LENGTH = 100;
+    private static final int PREFIX_LENGTH = 155;
+
+    private OutputStream out;
+    private ZipOutputStream zip;
+
+    /**
+     * Constructs an Archive writing to the given stream, in the zip
+     * format if zip is true and in the tar format otherwise.
+     */
+    public Archive(OutputStream out, boolean zip) {
+        this.out = out;
+        if (zip) {
+            this.zip = new ZipOutputStream(out);
+        }
+    }
+
+    /**
+     * Adds the contents of the given File to the archive under the given
+     * path, with the given modification time in milliseconds.
+     */
+    public void add(String path, File source, long time) throws IOException {
+        if (zip != null) {
+            ZipEntry entry = new ZipEntry(path);
+            entry.setLastModifiedTime(FileTime.fromMillis(time));
+            zip.putNextEntry(entry);
+            Files.copy(source.toPath(), zip);
+            zip.closeEntry();
+            return;
+        }
+
+        long size = source.length();
+        byte[] name = path.getBytes(StandardCharsets.UTF_8);
+        int split = splitPath(name);
+        if (split < 0) {
+            byte[] record = paxRecord("path", path);
+            out.write(header("PaxHeader", new byte[0], record.length, time, 'x'));
+            out.write(record);
+            pad(record.length);
+            out.write(header(path, new byte[0], size, time, '0'));
+        } else if (split == 0) {
+            out.write(header(path, new byte[0], size, time, '0'));
+        } else {
+            out.write(header(new String(name, split + 1, name.length - split - 1,
+                StandardCharsets.UTF_8), Arrays.copyOf(name, split), size, time, '0'));
+        }
+        if (Files.copy(source.toPath(), out) != size) {
+            throw new IOException(path + " changed while it was archived");
+        }
+        pad(size);
+    }
+
+    /**
+     * Writes the end of the archive and flushes the stream, which is
+     * left open.
+     */
+    public void finish() throws IOException {
+        if (zip != null) {
+            zip.finish();
+        } else {
+            out.write(new byte[2 * BLOCK]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Returns 0 if the given path fits in the ustar name field, the index
+     * of the slash splitting it into the prefix and name fields if it
+     * only fits in both, or -1 if it needs a pax header.
+     */
+    private static int splitPath(byte[] name) {
+        if (name.length <= NAME_LENGTH) {
+            return 0;
+        }
+        for (int i = Math.min(name.length - 2, PREFIX_LENGTH); i > 0; i--) {
+            if (name[i] == '/' && name.length - i - 1 <= NAME_LENGTH) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the pax record setting the given key to the given value,
+     * which starts with its own length in bytes.
+     */
+    private static byte[] paxRecord(String key, String value) {
+        int length = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() > Integer.toString(length).length()) {
+            total += 1;
+        }
+        return (total + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the ustar header of a regular file or pax header with the
+     * given name, prefix, size, modification time and type.
+     */
+    private static byte[] header(String name, byte[] prefix, long size, long time, char type)
+        throws IOException {
+        byte[] header = new byte[BLOCK];
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, 0, Math.min(bytes.length, NAME_LENGTH));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, time / 1000);
+        header[156] = (byte) type;
+        System.arraycopy("ustar\0".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 6);
+        header[263] = '0';
+        header[264] = '0';
+        System.arraycopy(prefix, 0, header, 345, prefix.length);
+
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        octal(header, 148, 7, sum);
+        return header;
+    }
+
+    /**
+     * Writes the given value in octal into the field of the given header
+     * at the given offset, padded with zeros and ending with a NUL.
+     */
+    private static void octal(byte[] header, int offset, int length, long value)
+        throws IOException {
+        String digits = Long.toOctalString(value);
+        if (digits.length() > length - 1) {
+            throw new IOException(value + " is too large for a tar header");
+        }
+        for (int i = 0; i < length - 1; i++) {
+            int j = i - (length - 1 - digits.length());
+            header[offset + i] = (byte) ((j < 0) ? '0' : digits.charAt(j));
+        }
+        header[offset + length - 1] = 0;
+    }
+
+    /**
+     * Pads the data of an entry with the given size to a whole block.
+     */
+    private void pad(long size) throws IOException {
+        int rest = (int) (size % BLOCK);
+        if (rest != 0) {
+            out.write(new byte[BLOCK - rest]);
+        }
+    }
+}
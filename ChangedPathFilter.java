@@ -0,0 +1,105 @@
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+
+/**
+ * Class that contains a Bloom filter of the paths changed by a Commit,
+ * including every directory leading to them. A path which is not in
+ * the filter was definitely not changed, while a path which is in it
+ * may have been. Commits which change too many paths keep no filter
+ * and report every path as possibly changed.
+ */
+public class ChangedPathFilter implements Serializable {
+    private static final int BITS_PER_PATH = 10;
+    private static final int HASHES = 7;
+    private static final int MAX_PATHS = 512;
+
+    private long[] bits;
+
+    /**
+     * Constructs a ChangedPathFilter for the given changed files.
+     */
+    public ChangedPathFilter(Collection<String> files) {
+        HashSet<String> entries = new HashSet<String>();
+        for (String file : files) {
+            String path = normalize(file);
+            while (!path.isEmpty()) {
+                if (!entries.add(path)) {
+                    break;
+                }
+                int slash = path.lastIndexOf('/');
+                path = (slash < 0) ? "" : path.substring(0, slash);
+            }
+        }
+
+        if (entries.size() > MAX_PATHS) {
+            bits = null;
+            return;
+        }
+        bits = new long[Math.max(1, (entries.size() * BITS_PER_PATH + 63) / 64)];
+        for (String entry : entries) {
+            int h1 = entry.hashCode();
+            int h2 = secondHash(entry);
+            for (int i = 0; i < HASHES; i++) {
+                int bit = index(h1 + i * h2);
+                bits[bit >>> 6] |= 1L << (bit & 63);
+            }
+        }
+    }
+
+    /**
+     * Returns false if the file or directory with the given path was
+     * definitely not changed, and true if it may have been.
+     */
+    public boolean mightContain(String path) {
+        if (bits == null) {
+            return true;
+        }
+        String entry = normalize(path);
+        int h1 = entry.hashCode();
+        int h2 = secondHash(entry);
+        for (int i = 0; i < HASHES; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the bit of the filter for the given hash value.
+     */
+    private int index(int hash) {
+        return (int) ((hash & 0xffffffffL) % (bits.length * 64L));
+    }
+
+    /**
+     * Returns the given path with separators as forward slashes and
+     * without leading "./" or trailing slashes, or the empty String if
+     * it is the working directory itself.
+     */
+    static String normalize(String path) {
+        String result = path.replace('\\', '/');
+        while (result.startsWith("./")) {
+            result = result.substring(2);
+        }
+        while (result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result.equals(".") ? "" : result;
+    }
+
+    /**
+     * Returns an FNV-1a hash of the given String, used together with
+     * String.hashCode to derive the hashes of the filter.
+     */
+    private static int secondHash(String s) {
+        int hash = 0x811c9dc5;
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= 0x01000193;
+        }
+        return hash | 1;
+    }
+}
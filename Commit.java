@@ -1,7 +1,9 @@
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * Class that contains all of the pertinent information of a
@@ -9,11 +11,17 @@ import java.util.Set;
  * its previous Commit, and all the files it contains.
  */
 public class Commit implements Serializable, Comparable<Commit> {
+    public static final String INITIAL_UID = "initial";
+
     private int id;
+    private String uid;
     private String message;
     private Date time;
     private Commit previous;
     private HashMap<String, Integer> files;
+    private HashMap<String, String> hashes;
+    private ChangedPathFilter changed;
+    private ArrayList<String> delta;
 
     /**
      * Constructs a Commit with the given ID and messages, with no
@@ -21,10 +29,14 @@ public class Commit implements Serializable, Comparable<Commit> {
      */
     public Commit(int id, String message) {
         this.id = id;
+        this.uid = INITIAL_UID;
         this.message = message;
         this.previous = null;
         files = new HashMap<String, Integer>();
+        hashes = new HashMap<String, String>();
         time = new Date();
+        delta = new ArrayList<String>();
+        changed = new ChangedPathFilter(delta);
     }
 
     /**
@@ -32,11 +44,53 @@ public class Commit implements Serializable, Comparable<Commit> {
      * and a HashMap mapping filenames to their commits.
      */
     public Commit(int id, String message, Commit previous, HashMap<String, Integer> files) {
+        this(id, message, previous, files, new HashMap<String, String>());
+    }
+
+    /**
+     * Constructs a Commit with the given ID, message, previous Commit,
+     * a HashMap mapping filenames to their commits, and a HashMap mapping
+     * the filenames of the files stored by this Commit to the SHA-1
+     * hashes of their contents.
+     */
+    public Commit(int id, String message, Commit previous, HashMap<String, Integer> files,
+        HashMap<String, String> hashes) {
+        this(id, message, previous, files, hashes, null);
+    }
+
+    /**
+     * Constructs a Commit with the given ID, message, previous Commit,
+     * a HashMap mapping filenames to their commits, a HashMap mapping the
+     * filenames of the files stored by this Commit to their hashes, and
+     * the List of files changed relative to the previous Commit, which is
+     * computed by comparing the file maps if it is null.
+     */
+    public Commit(int id, String message, Commit previous, HashMap<String, Integer> files,
+        HashMap<String, String> hashes, ArrayList<String> delta) {
+        this(id, UUID.randomUUID().toString(), message, new Date(), previous, files, hashes,
+            delta);
+    }
+
+    /**
+     * Constructs a Commit with the given ID, unique ID, message, time,
+     * previous Commit, HashMap mapping filenames to their commits, HashMap
+     * mapping the filenames of the files stored by this Commit to their
+     * hashes, and List of files changed relative to the previous Commit,
+     * which is computed by comparing the file maps if it is null. This is
+     * used to copy a Commit from another repository.
+     */
+    public Commit(int id, String uid, String message, Date time, Commit previous,
+        HashMap<String, Integer> files, HashMap<String, String> hashes,
+        ArrayList<String> delta) {
         this.id = id;
+        this.uid = uid;
         this.message = message;
+        this.time = time;
         this.previous = previous;
         this.files = files;
-        time = new Date();
+        this.hashes = hashes;
+        this.delta = delta;
+        changed = new ChangedPathFilter(changedPaths());
     }
 
     /**
@@ -55,6 +109,18 @@ public class Commit implements Serializable, Comparable<Commit> {
         return files.get(filename);
     }
 
+    /**
+     * Returns the SHA-1 hash of the contents of the file with the given
+     * name stored by this Commit, or null if this Commit did not store
+     * the file or its hash is unknown.
+     */
+    public String getHash(String filename) {
+        if (hashes == null) {
+            return null;
+        }
+        return hashes.get(filename);
+    }
+
     /**
      * Returns a copy of the HashMap mapping filenames contained in this Commit
      * to their Commits.
@@ -63,6 +129,42 @@ public class Commit implements Serializable, Comparable<Commit> {
         return new HashMap<String, Integer>(files);
     }
 
+    /**
+     * Returns a List of the files which were added, changed or removed
+     * in this Commit, relative to its previous Commit.
+     */
+    public ArrayList<String> changedPaths() {
+        if (delta != null) {
+            return new ArrayList<String>(delta);
+        }
+        ArrayList<String> changed = new ArrayList<String>();
+        HashMap<String, Integer> before = new HashMap<String, Integer>();
+        if (previous != null) {
+            before = previous.files;
+        }
+        for (String filename : files.keySet()) {
+            if (!files.get(filename).equals(before.get(filename))) {
+                changed.add(filename);
+            }
+        }
+        for (String filename : before.keySet()) {
+            if (!files.containsKey(filename)) {
+                changed.add(filename);
+            }
+        }
+        delta = changed;
+        return new ArrayList<String>(changed);
+    }
+
+    /**
+     * Returns false if this Commit definitely did not add, change or
+     * remove the file or directory with the given path, relative to its
+     * previous Commit, and true if it may have.
+     */
+    public boolean mayHaveChanged(String path) {
+        return changed == null || changed.mightContain(path);
+    }
+
     /**
      * Returns the ID of this Commit.
      */
@@ -70,6 +172,15 @@ public class Commit implements Serializable, Comparable<Commit> {
         return id;
     }
 
+    /**
+     * Returns the unique ID of this Commit, which is the same in every
+     * repository the Commit is copied to. All initial commits share
+     * the same unique ID.
+     */
+    public String getUID() {
+        return uid;
+    }
+
     /**
      * Returns the message of this Commit.
      */
@@ -84,6 +195,20 @@ public class Commit implements Serializable, Comparable<Commit> {
         return time;
     }
 
+    /**
+     * Sets the previous Commit of this Commit. A null previous Commit
+     * makes this Commit the grafted root of a shallow history, and keeps
+     * the files it changed relative to its real previous Commit, which are
+     * otherwise compared again.
+     */
+    public void setPrevious(Commit previous) {
+        this.previous = previous;
+        if (previous != null) {
+            delta = null;
+            changed = new ChangedPathFilter(changedPaths());
+        }
+    }
+
     /**
      * Returns the previous Commit of this Commit.
      */
@@ -0,0 +1,342 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Class that contains a compressed set of Commit IDs, split into
+ * containers of 65536 IDs sharing the same upper 16 bits. Sparse
+ * containers keep a sorted array of the lower 16 bits, while dense
+ * ones keep a bitmap of 1024 longs, so that long runs of consecutive
+ * IDs (as in the history of a Branch) take one bit per Commit.
+ */
+public class CommitBitmap implements Serializable {
+    private static final int MAX_ARRAY = 4096;
+
+    private int[] keys;
+    private Container[] containers;
+    private int size;
+
+    /**
+     * Constructs an empty CommitBitmap.
+     */
+    public CommitBitmap() {
+        keys = new int[4];
+        containers = new Container[4];
+        size = 0;
+    }
+
+    /**
+     * Adds the given ID to the set.
+     */
+    public void add(int id) {
+        int key = id >>> 16;
+        int pos = Arrays.binarySearch(keys, 0, size, key);
+        if (pos < 0) {
+            pos = -pos - 1;
+            insert(pos, key, new Container());
+        }
+        containers[pos].add((char) id);
+    }
+
+    /**
+     * Returns true if the set contains the given ID.
+     */
+    public boolean contains(int id) {
+        int pos = Arrays.binarySearch(keys, 0, size, id >>> 16);
+        return pos >= 0 && containers[pos].contains((char) id);
+    }
+
+    /**
+     * Returns the number of IDs in the set.
+     */
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count += containers[i].cardinality();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the largest ID in the set, or -1 if it is empty.
+     */
+    public int last() {
+        for (int i = size - 1; i >= 0; i--) {
+            int low = containers[i].last();
+            if (low >= 0) {
+                return (keys[i] << 16) | low;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the IDs of the set as a sorted array.
+     */
+    public int[] toArray() {
+        int[] result = new int[cardinality()];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            count = containers[i].copyTo(keys[i] << 16, result, count);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of this set.
+     */
+    public CommitBitmap copy() {
+        CommitBitmap result = new CommitBitmap();
+        for (int i = 0; i < size; i++) {
+            result.insert(result.size, keys[i], containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new set of the IDs in both this set and the other set.
+     */
+    public CommitBitmap and(CommitBitmap other) {
+        CommitBitmap result = new CommitBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i += 1;
+            } else if (keys[i] > other.keys[j]) {
+                j += 1;
+            } else {
+                Container c = containers[i].combine(other.containers[j], Container.AND);
+                if (c.cardinality() > 0) {
+                    result.insert(result.size, keys[i], c);
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a new set of the IDs in this set but not in the other set.
+     */
+    public CommitBitmap andNot(CommitBitmap other) {
+        CommitBitmap result = new CommitBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) {
+                j += 1;
+            }
+            Container c;
+            if (j < other.size && other.keys[j] == keys[i]) {
+                c = containers[i].combine(other.containers[j], Container.AND_NOT);
+            } else {
+                c = containers[i].copy();
+            }
+            if (c.cardinality() > 0) {
+                result.insert(result.size, keys[i], c);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Inserts the given Container for the given key at the given position.
+     */
+    private void insert(int pos, int key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = container;
+        size += 1;
+    }
+
+    /**
+     * Class that contains the lower 16 bits of the IDs sharing one key,
+     * either as a sorted array or, once it holds more than 4096 values,
+     * as a bitmap.
+     */
+    private static class Container implements Serializable {
+        static final int AND = 0;
+        static final int AND_NOT = 1;
+
+        private char[] values;
+        private int count;
+        private long[] bitmap;
+
+        /**
+         * Constructs an empty array Container.
+         */
+        Container() {
+            values = new char[4];
+            count = 0;
+            bitmap = null;
+        }
+
+        /**
+         * Adds the given value to the Container.
+         */
+        void add(char value) {
+            if (bitmap != null) {
+                if (!contains(value)) {
+                    bitmap[value >>> 6] |= 1L << (value & 63);
+                    count += 1;
+                }
+                return;
+            }
+            int pos = Arrays.binarySearch(values, 0, count, value);
+            if (pos >= 0) {
+                return;
+            }
+            pos = -pos - 1;
+            if (count == MAX_ARRAY) {
+                toBitmap();
+                add(value);
+                return;
+            }
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(count * 2, MAX_ARRAY));
+            }
+            System.arraycopy(values, pos, values, pos + 1, count - pos);
+            values[pos] = value;
+            count += 1;
+        }
+
+        /**
+         * Returns true if the Container contains the given value.
+         */
+        boolean contains(char value) {
+            if (bitmap != null) {
+                return (bitmap[value >>> 6] & (1L << (value & 63))) != 0;
+            }
+            return Arrays.binarySearch(values, 0, count, value) >= 0;
+        }
+
+        /**
+         * Returns the number of values in the Container.
+         */
+        int cardinality() {
+            return count;
+        }
+
+        /**
+         * Returns the largest value in the Container, or -1 if it is empty.
+         */
+        int last() {
+            if (count == 0) {
+                return -1;
+            }
+            if (bitmap == null) {
+                return values[count - 1];
+            }
+            for (int i = bitmap.length - 1; i >= 0; i--) {
+                if (bitmap[i] != 0) {
+                    return i * 64 + 63 - Long.numberOfLeadingZeros(bitmap[i]);
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Copies the values of the Container, added to the given base,
+         * into the array from the given position onwards. Returns the
+         * position after the last copied value.
+         */
+        int copyTo(int base, int[] result, int pos) {
+            if (bitmap == null) {
+                for (int i = 0; i < count; i++) {
+                    result[pos] = base | values[i];
+                    pos += 1;
+                }
+                return pos;
+            }
+            for (int i = 0; i < bitmap.length; i++) {
+                long word = bitmap[i];
+                while (word != 0) {
+                    result[pos] = base | (i * 64 + Long.numberOfTrailingZeros(word));
+                    pos += 1;
+                    word &= word - 1;
+                }
+            }
+            return pos;
+        }
+
+        /**
+         * Returns a copy of the Container.
+         */
+        Container copy() {
+            Container result = new Container();
+            result.count = count;
+            if (bitmap != null) {
+                result.bitmap = bitmap.clone();
+            } else {
+                result.values = Arrays.copyOf(values, Math.max(count, 4));
+            }
+            return result;
+        }
+
+        /**
+         * Returns a new Container combining this Container with the other
+         * one using the given operation.
+         */
+        Container combine(Container other, int op) {
+            long[] a = asBitmap();
+            long[] b = other.asBitmap();
+            Container result = new Container();
+            result.bitmap = new long[1024];
+            for (int i = 0; i < 1024; i++) {
+                long word;
+                if (op == AND) {
+                    word = a[i] & b[i];
+                } else {
+                    word = a[i] & ~b[i];
+                }
+                result.bitmap[i] = word;
+                result.count += Long.bitCount(word);
+            }
+            if (result.count <= MAX_ARRAY) {
+                result.toArrayContainer();
+            }
+            return result;
+        }
+
+        /**
+         * Returns the values of the Container as a bitmap, without
+         * converting the Container itself.
+         */
+        private long[] asBitmap() {
+            if (bitmap != null) {
+                return bitmap;
+            }
+            long[] result = new long[1024];
+            for (int i = 0; i < count; i++) {
+                result[values[i] >>> 6] |= 1L << (values[i] & 63);
+            }
+            return result;
+        }
+
+        /**
+         * Converts the Container from an array to a bitmap.
+         */
+        private void toBitmap() {
+            bitmap = asBitmap();
+            values = null;
+        }
+
+        /**
+         * Converts the Container from a bitmap to an array.
+         */
+        private void toArrayContainer() {
+            int[] all = new int[count];
+            copyTo(0, all, 0);
+            values = new char[Math.max(count, 4)];
+            for (int i = 0; i < count; i++) {
+                values[i] = (char) all[i];
+            }
+            bitmap = null;
+        }
+    }
+}
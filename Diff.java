@@ -0,0 +1,426 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class that provides a line-based diff engine and methods for printing
+ * its results as unified diffs. Lines are first mapped to integers, so
+ * that equal lines are compared as integers. The engine trims the common
+ * prefix and suffix, then anchors on the rarest lines shared by both
+ * sides (the histogram heuristic), falling back to Myers' algorithm for
+ * regions where every shared line is too common to anchor on.
+ */
+public class Diff {
+    private static final int CONTEXT = 3;
+    private static final int MAX_CHAIN = 64;
+    private static final int BINARY_PROBE = 8000;
+    private static final long MAX_MYERS_CELLS = 1L << 22;
+
+    /**
+     * Class that contains one difference between two sequences: the lines
+     * from beginA (inclusive) to endA (exclusive) of the first sequence
+     * were replaced by the lines from beginB to endB of the second.
+     */
+    public static class Edit {
+        private final int beginA;
+        private final int endA;
+        private final int beginB;
+        private final int endB;
+
+        /**
+         * Constructs an Edit replacing the given range of the first
+         * sequence with the given range of the second.
+         */
+        public Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+
+        /**
+         * Returns the first replaced line of the first sequence.
+         */
+        public int getBeginA() {
+            return beginA;
+        }
+
+        /**
+         * Returns the line after the last replaced line of the first sequence.
+         */
+        public int getEndA() {
+            return endA;
+        }
+
+        /**
+         * Returns the first replacing line of the second sequence.
+         */
+        public int getBeginB() {
+            return beginB;
+        }
+
+        /**
+         * Returns the line after the last replacing line of the second sequence.
+         */
+        public int getEndB() {
+            return endB;
+        }
+    }
+
+    /**
+     * Returns the Edits, sorted by position, which turn the first List of
+     * lines into the second.
+     */
+    public static List<Edit> diff(List<String> first, List<String> second) {
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        int[] a = toIDs(first, ids);
+        int[] b = toIDs(second, ids);
+        return diff(a, b);
+    }
+
+    /**
+     * Returns the Edits, sorted by position, which turn the first
+     * sequence of line IDs into the second.
+     */
+    public static List<Edit> diff(int[] a, int[] b) {
+        ArrayList<Edit> edits = new ArrayList<Edit>();
+        ArrayDeque<int[]> regions = new ArrayDeque<int[]>();
+        regions.push(new int[] {0, a.length, 0, b.length});
+        while (!regions.isEmpty()) {
+            int[] r = regions.pop();
+            histogram(a, b, r[0], r[1], r[2], r[3], regions, edits);
+        }
+        Collections.sort(edits, new Comparator<Edit>() {
+            public int compare(Edit x, Edit y) {
+                return Integer.compare(x.beginA, y.beginA);
+            }
+        });
+        return edits;
+    }
+
+    /**
+     * Prints a unified diff of the file at the given path, from the before
+     * File to the after File, to the given PrintWriter. A null File stands
+     * for a missing file. Prints nothing if the contents are the same or
+     * both files are missing, and only a note if either file is binary.
+     */
+    public static void write(PrintWriter out, String path, File before, File after) {
+        if (before == null && after == null) {
+            return;
+        } else if (before != null && after != null && WorkingTree.sameContent(before, after)) {
+            return;
+        }
+        List<String> a = (before == null) ? new ArrayList<String>() : readLines(before);
+        List<String> b = (after == null) ? new ArrayList<String>() : readLines(after);
+
+        out.println("diff --gitlet a/" + path + " b/" + path);
+        if (a == null || b == null) {
+            out.println("Binary files " + (before == null ? "/dev/null" : "a/" + path)
+                + " and " + (after == null ? "/dev/null" : "b/" + path) + " differ");
+            return;
+        }
+        out.println("--- " + (before == null ? "/dev/null" : "a/" + path));
+        out.println("+++ " + (after == null ? "/dev/null" : "b/" + path));
+        writeHunks(out, a, b, diff(a, b));
+    }
+
+    /**
+     * Returns the lines of the given File decoded as UTF-8, each including
+     * its line terminator, as read by readLines(File, Charset).
+     */
+    public static List<String> readLines(File file) {
+        return readLines(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the lines of the given File decoded with the given Charset,
+     * each including its line terminator, reading it through a buffered
+     * stream. Returns null if the file looks binary, because one of its
+     * first 8000 bytes is zero, and an empty List if it cannot be read.
+     */
+    public static List<String> readLines(File file, Charset charset) {
+        ArrayList<String> lines = new ArrayList<String>();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long pos = 0;
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == 0 && pos < BINARY_PROBE) {
+                    return null;
+                }
+                pos += 1;
+                line.write(c);
+                if (c == '\n') {
+                    lines.add(new String(line.toByteArray(), charset));
+                    line.reset();
+                }
+            }
+            if (line.size() > 0) {
+                lines.add(new String(line.toByteArray(), charset));
+            }
+        } catch (IOException e) {
+            return new ArrayList<String>();
+        }
+        return lines;
+    }
+
+    /**
+     * Prints the given Edits between the two Lists of lines as unified
+     * diff hunks with three lines of context.
+     */
+    private static void writeHunks(PrintWriter out, List<String> a, List<String> b,
+        List<Edit> edits) {
+        int i = 0;
+        while (i < edits.size()) {
+            int j = i;
+            while (j + 1 < edits.size()
+                && edits.get(j + 1).beginA - edits.get(j).endA <= 2 * CONTEXT) {
+                j += 1;
+            }
+            Edit first = edits.get(i);
+            Edit last = edits.get(j);
+            int aStart = Math.max(0, first.beginA - CONTEXT);
+            int aEnd = Math.min(a.size(), last.endA + CONTEXT);
+            int bStart = first.beginB - (first.beginA - aStart);
+            int bEnd = last.endB + (aEnd - last.endA);
+            out.println("@@ -" + range(aStart, aEnd - aStart) + " +"
+                + range(bStart, bEnd - bStart) + " @@");
+
+            int pos = aStart;
+            for (int k = i; k <= j; k++) {
+                Edit edit = edits.get(k);
+                writeLines(out, " ", a, pos, edit.beginA);
+                writeLines(out, "-", a, edit.beginA, edit.endA);
+                writeLines(out, "+", b, edit.beginB, edit.endB);
+                pos = edit.endA;
+            }
+            writeLines(out, " ", a, pos, aEnd);
+            i = j + 1;
+        }
+    }
+
+    /**
+     * Returns the range of a hunk header for the given 0-based start
+     * and length.
+     */
+    private static String range(int start, int length) {
+        if (length == 0) {
+            return start + ",0";
+        }
+        return (start + 1) + "," + length;
+    }
+
+    /**
+     * Prints the given range of lines, each preceded by the given prefix.
+     */
+    private static void writeLines(PrintWriter out, String prefix, List<String> lines,
+        int from, int to) {
+        for (int i = from; i < to; i++) {
+            String line = lines.get(i);
+            out.print(prefix);
+            if (line.endsWith("\n")) {
+                int end = line.length() - (line.endsWith("\r\n") ? 2 : 1);
+                out.println(line.substring(0, end));
+            } else {
+                out.println(line);
+                out.println("\\ No newline at end of file");
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs of the given lines, assigning each distinct line
+     * the next free ID in the given map.
+     */
+    public static int[] toIDs(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i++) {
+            Integer id = ids.get(lines.get(i));
+            if (id == null) {
+                id = ids.size();
+                ids.put(lines.get(i), id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Diffs the given region of the two sequences. Trims the lines the
+     * region starts and ends with on both sides, then looks for the
+     * longest run of matching lines around an occurrence of the line
+     * which occurs least often in the first sequence, preferring runs
+     * nearer the middle so the regions stay balanced. The regions before
+     * and after that run are pushed onto the given stack to be diffed
+     * later, and any Edits found are added to the given List.
+     */
+    private static void histogram(int[] a, int[] b, int aLo, int aHi, int bLo, int bHi,
+        ArrayDeque<int[]> regions, List<Edit> edits) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            if (aLo < aHi || bLo < bHi) {
+                edits.add(new Edit(aLo, aHi, bLo, bHi));
+            }
+            return;
+        }
+
+        HashMap<Integer, ArrayList<Integer>> occurrences =
+            new HashMap<Integer, ArrayList<Integer>>();
+        for (int i = aLo; i < aHi; i++) {
+            ArrayList<Integer> list = occurrences.get(a[i]);
+            if (list == null) {
+                list = new ArrayList<Integer>();
+                occurrences.put(a[i], list);
+            }
+            list.add(i);
+        }
+
+        int bestCount = MAX_CHAIN + 1;
+        int bestLength = 0;
+        int bestA = 0;
+        int bestB = 0;
+        int middle = bLo + bHi;
+        int bi = bLo;
+        while (bi < bHi) {
+            int next = bi + 1;
+            ArrayList<Integer> list = occurrences.get(b[bi]);
+            if (list != null && list.size() <= bestCount) {
+                for (int ai : list) {
+                    int startA = ai;
+                    int startB = bi;
+                    while (startA > aLo && startB > bLo && a[startA - 1] == b[startB - 1]) {
+                        startA -= 1;
+                        startB -= 1;
+                    }
+                    int endA = ai + 1;
+                    int endB = bi + 1;
+                    while (endA < aHi && endB < bHi && a[endA] == b[endB]) {
+                        endA += 1;
+                        endB += 1;
+                    }
+                    int length = endA - startA;
+                    if (list.size() < bestCount || length > bestLength
+                        || (length == bestLength && Math.abs(startB + endB - middle)
+                            < Math.abs(2 * bestB + bestLength - middle))) {
+                        bestCount = list.size();
+                        bestLength = length;
+                        bestA = startA;
+                        bestB = startB;
+                    }
+                    next = Math.max(next, endB);
+                }
+            }
+            bi = next;
+        }
+
+        if (bestLength == 0) {
+            myers(a, b, aLo, aHi, bLo, bHi, edits);
+            return;
+        }
+        regions.push(new int[] {bestA + bestLength, aHi, bestB + bestLength, bHi});
+        regions.push(new int[] {aLo, bestA, bLo, bestB});
+    }
+
+    /**
+     * Adds the Edits of a shortest edit script for the given region of
+     * the two sequences, found with Myers' algorithm, to the given List.
+     * If the search would need too much memory, the whole region is
+     * added as a single Edit instead.
+     */
+    private static void myers(int[] a, int[] b, int aLo, int aHi, int bLo, int bHi,
+        List<Edit> edits) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int max = n + m;
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        ArrayList<int[]> trace = new ArrayList<int[]>();
+        int found = -1;
+        for (int d = 0; d <= max && found < 0; d++) {
+            if ((long) (d + 1) * v.length > MAX_MYERS_CELLS) {
+                edits.add(new Edit(aLo, aHi, bLo, bHi));
+                return;
+            }
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break;
+                }
+            }
+        }
+
+        ArrayList<int[]> matches = new ArrayList<int[]>();
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; d--) {
+            int[] prev = trace.get(d);
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && prev[offset + k - 1] < prev[offset + k + 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = prev[offset + prevK];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x -= 1;
+                y -= 1;
+                matches.add(new int[] {x, y});
+            }
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            x -= 1;
+            y -= 1;
+            matches.add(new int[] {x, y});
+        }
+
+        int prevA = 0;
+        int prevB = 0;
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            int[] match = matches.get(i);
+            if (match[0] > prevA || match[1] > prevB) {
+                edits.add(new Edit(aLo + prevA, aLo + match[0], bLo + prevB, bLo + match[1]));
+            }
+            prevA = match[0] + 1;
+            prevB = match[1] + 1;
+        }
+        if (prevA < n || prevB < m) {
+            edits.add(new Edit(aLo + prevA, aHi, bLo + prevB, bHi));
+        }
+    }
+}
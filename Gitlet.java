@@ -3,35 +3,106 @@ import java.io.FileOutputStream;
 import java.io.FileInputStream;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 /**
  * Class that provides menu functionality for Gitlet commands and handles
  * the reading and writing of History objects.
  */
 public class Gitlet {
+    private static final long GC_GRACE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+    /* The locks this process holds, by the path of their lock file. */
+    private static final Map<Path, FileLock> HELD =
+        Collections.synchronizedMap(new HashMap<Path, FileLock>());
 
     /**
      * Main method of Gitlet class, which calls the corresponding
-     * helper method depending on which command is passed in.
+     * helper method depending on which command is passed in. If
+     * --yes is passed before or directly after the command, it is
+     * removed and dangerous commands go ahead without prompting.
      */
     public static void main(String[] args) {
         String command = "invalid command";
         History hist = null;
+        ArrayList<String> rest = new ArrayList<String>(Arrays.asList(args));
+        boolean yes = false;
+        for (int i = 0; i < 2 && i < rest.size(); i++) {
+            if (rest.get(i).equals("--yes")) {
+                rest.remove(i);
+                yes = true;
+                break;
+            }
+        }
+        args = rest.toArray(new String[0]);
+        FileLock lock = null;
         if (args.length > 0) {
             command = args[0];
-            if (!command.equals("init")) {
-                hist = readHistory();
-                if (hist == null) {
+            if (!command.equals("init") && !command.equals("clone")) {
+                String[] location = locate();
+                if (location == null) {
+                    return;
+                }
+                if (!command.equals("fsmonitor")) {
+                    lock = lock(location[0]);
+                    if (lock == null) {
+                        return;
+                    }
+                }
+                hist = readHistory(location[0]);
+                if (hist == null || !hist.selectWorktree(location[1], location[0])) {
+                    if (hist != null) {
+                        System.out.println("This working tree has been removed.");
+                    }
+                    unlock(lock);
                     return;
                 }
+                if (yes) {
+                    hist.assumeYes();
+                }
             }
         }
 
+        try {
+            run(command, args, hist);
+        } finally {
+            unlock(lock);
+        }
+    }
+
+    /**
+     * Calls the helper method for the given command.
+     */
+    private static void run(String command, String[] args, History hist) {
         switch (command) {
             case "init":
                 init(args);
                 break;
+            case "clone":
+                clone(args);
+                break;
             case "add":
                 add(args, hist);
                 break;
@@ -53,6 +124,9 @@ public class Gitlet {
             case "status":
                 status(args, hist);
                 break;
+            case "diff":
+                diff(args, hist);
+                break;
             case "checkout":
                 checkout(args, hist);
                 break;
@@ -74,6 +148,42 @@ public class Gitlet {
             case "i-rebase":
                 iRebase(args, hist);
                 break;
+            case "fsmonitor":
+                fsmonitor(args);
+                break;
+            case "add-remote":
+                addRemote(args, hist);
+                break;
+            case "fetch":
+                fetch(args, hist);
+                break;
+            case "push":
+                push(args, hist);
+                break;
+            case "pull":
+                pull(args, hist);
+                break;
+            case "worktree":
+                worktree(args, hist);
+                break;
+            case "gc":
+                gc(args, hist);
+                break;
+            case "fsck":
+                fsck(args, hist);
+                break;
+            case "sparse-checkout":
+                sparseCheckout(args, hist);
+                break;
+            case "shallow":
+                shallow(args, hist);
+                break;
+            case "deepen":
+                deepen(args, hist);
+                break;
+            case "archive":
+                archive(args, hist);
+                break;
             default:
                 System.out.println("Unrecognized command.");
                 break;
@@ -102,15 +212,45 @@ public class Gitlet {
     }
 
     /**
-     * Calls the add method of the History object
-     * if only one additional argument (the filename) is supplied.
+     * Clones the repository whose .gitlet directory is given as the last
+     * additional argument into the current directory, if it does not
+     * already have a .gitlet folder, and saves the new History. If the
+     * first additional argument is --shared, the clone reads the stored
+     * files of the source instead of linking them.
+     */
+    private static void clone(String[] args) {
+        boolean shared = args.length == 3 && args[1].equals("--shared");
+        if (args.length != 2 && !shared) {
+            System.out.println("Clone requires one argument, optionally after --shared.");
+            return;
+        }
+        File gitlet = new File(".gitlet");
+        if (gitlet.exists()) {
+            System.out.println("A gitlet version control system "
+                + "already exists in the current directory.");
+            return;
+        }
+        String source = args[args.length - 1].replace('/', File.separatorChar);
+        if (!new File(source, "history.ser").isFile()) {
+            System.out.println("Remote directory not found.");
+            return;
+        }
+        History hist = History.cloneFrom(source, shared);
+        if (hist != null) {
+            writeHistory(hist);
+        }
+    }
+
+    /**
+     * Calls the add method of the History object if at least one
+     * additional argument (a filename, directory or glob) is supplied.
      */
     private static void add(String[] args, History hist) {
-        if (args.length != 2) {
-            System.out.println("Add requires one argument.");
+        if (args.length < 2) {
+            System.out.println("Add requires at least one argument.");
             return;
         }
-        hist.add(args[1]);
+        hist.add(Arrays.asList(args).subList(1, args.length));
         writeHistory(hist);
     }
 
@@ -141,34 +281,107 @@ public class Gitlet {
     }
 
     /**
-     * Calls the log method of the History object if no
-     * additional arguments are supplied.
+     * Calls the log method of the History object if no additional
+     * arguments are supplied. If one additional argument is supplied,
+     * prints the Commits in it if it is a range "A..B", and otherwise
+     * only the Commits which changed the file or directory at that path.
+     * If the range is preceded by --count, only prints their number.
      */
     private static void log(String[] args, History hist) {
+        if (args.length == 3 && args[1].equals("--count")) {
+            if (!hist.logRange(args[2], true)) {
+                System.out.println("No such range of commits exists.");
+            }
+            return;
+        }
+        if (args.length == 2) {
+            if (!hist.logRange(args[1], false)) {
+                hist.log(args[1]);
+            }
+            return;
+        }
         if (args.length != 1) {
-            System.out.println("Log requires no additional arguments.");
+            System.out.println("Log requires at most one argument.");
             return;
         }
         hist.log();
     }
 
     /**
-     * Calls the globalLog method of the History object if no
-     * additional arguments are supplied.
+     * Calls the globalLog method of the History object. The optional
+     * arguments --since and --until each take a date (yyyy-MM-dd, or
+     * yyyy-MM-dd HH:mm:ss), --limit takes the maximum number of commits
+     * to print, and --cursor takes a cursor printed by a previous call.
      */
     private static void globalLog(String[] args, History hist) {
-        if (args.length != 1) {
-            System.out.println("Global-log requires no additional arguments.");
+        if (args.length % 2 != 1) {
+            System.out.println("Each global-log option requires one argument.");
+            return;
+        }
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        int limit = Integer.MAX_VALUE;
+        String cursor = null;
+        try {
+            for (int i = 1; i < args.length; i += 2) {
+                if (args[i].equals("--since")) {
+                    since = parseTime(args[i + 1], false);
+                } else if (args[i].equals("--until")) {
+                    until = parseTime(args[i + 1], true);
+                } else if (args[i].equals("--limit")) {
+                    limit = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--cursor")) {
+                    cursor = args[i + 1];
+                } else {
+                    System.out.println("Unrecognized global-log option.");
+                    return;
+                }
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("Dates must be formatted as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.");
+            return;
+        } catch (NumberFormatException e) {
+            System.out.println("The limit must be a number.");
             return;
         }
-        hist.globalLog();
+        if (limit < 1) {
+            System.out.println("The limit must be a positive number.");
+            return;
+        }
+        hist.globalLog(since, until, limit, cursor);
+    }
+
+    /**
+     * Returns the time, in milliseconds, of the given date formatted as
+     * yyyy-MM-dd or yyyy-MM-dd HH:mm:ss in the local time zone. A date
+     * without a time means the start of that day, or its last millisecond
+     * if endOfDay is true.
+     */
+    private static long parseTime(String date, boolean endOfDay) {
+        LocalDateTime time;
+        if (date.length() == 10) {
+            time = LocalDate.parse(date).atStartOfDay();
+            if (endOfDay) {
+                time = time.plusDays(1).minusNanos(1000000);
+            }
+        } else {
+            time = LocalDateTime.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+        }
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 
     /**
     * Calls the find method of the History object if only one
-    * additional argument (the commit message) is supplied.
+    * additional argument (the commit message) is supplied. If the
+    * message is preceded by --token, --prefix or --contains, searches
+    * the message index in that mode instead of matching exactly.
     */
     private static void find(String[] args, History hist) {
+        if (args.length == 3 && (args[1].equals("--token") || args[1].equals("--prefix")
+            || args[1].equals("--contains"))) {
+            hist.find(args[1].substring(2), args[2]);
+            return;
+        }
         if (args.length != 2) {
             System.out.println("Find requires one argument.");
             return;
@@ -178,14 +391,39 @@ public class Gitlet {
 
     /**
      * Calls the status method of the History object if no
-     * additional arguments are supplied.
+     * additional arguments are supplied, and saves the file
+     * information it caches if that changed.
      */
     private static void status(String[] args, History hist) {
         if (args.length != 1) {
             System.out.println("Status requires no additional arguments.");
             return;
         }
-        hist.status();
+        if (hist.status()) {
+            writeHistory(hist);
+        }
+    }
+
+    /**
+     * Calls a diff method of the History object. With no additional
+     * arguments, diffs the working directory against the staged files
+     * and the current head, and with --staged, the staged files against
+     * the current head. With one commit (a Branch name or Commit ID),
+     * diffs that commit against the working directory, and with two,
+     * diffs the first commit against the second.
+     */
+    private static void diff(String[] args, History hist) {
+        if (args.length == 1) {
+            hist.diff();
+        } else if (args.length == 2 && args[1].equals("--staged")) {
+            hist.diffStaged();
+        } else if (args.length == 2 || args.length == 3) {
+            if (!hist.diff(args[1], args.length == 3 ? args[2] : null)) {
+                System.out.println("No commit with that id exists.");
+            }
+        } else {
+            System.out.println("Diff requires at most two arguments.");
+        }
     }
 
     /**
@@ -208,9 +446,15 @@ public class Gitlet {
 
     /**
      * Calls the branch method of the History object if only one
-     * additional argument (branch name) is supplied.
+     * additional argument (branch name) is supplied. If a commit id
+     * preceded by --contains is supplied instead, prints the branches
+     * containing that commit.
      */
     private static void branch(String[] args, History hist) {
+        if (args.length == 3 && args[1].equals("--contains")) {
+            hist.branchesContaining(Integer.parseInt(args[2]));
+            return;
+        }
         if (args.length != 2) {
             System.out.println("Branch requires one argument.");
             return;
@@ -246,15 +490,15 @@ public class Gitlet {
     }
 
     /**
-     * Calls the merge method of the History object if only
-     * one additional argument (branch name) is supplied.
+     * Calls the merge method of the History object if at least
+     * one additional argument (a branch name) is supplied.
      */
     private static void merge(String[] args, History hist) {
-        if (args.length != 2) {
-            System.out.println("Merge requires one argument.");
+        if (args.length < 2) {
+            System.out.println("Merge requires at least one argument.");
             return;
         }
-        hist.merge(args[1]);
+        hist.merge(Arrays.asList(args).subList(1, args.length));
     }
 
     /**
@@ -272,28 +516,369 @@ public class Gitlet {
 
     /**
      * Calls the iRebase method of the History object if only
-     * one additional argument (branch name) is supplied.
+     * one additional argument (branch name) is supplied, optionally
+     * followed by --plan and the name of a plan file.
      */
     private static void iRebase(String[] args, History hist) {
+        if (args.length == 4 && args[2].equals("--plan")) {
+            hist.iRebase(args[1], args[3]);
+            writeHistory(hist);
+            return;
+        }
         if (args.length != 2) {
             System.out.println("I-rebase requires one argument.");
             return;
         }
-        hist.iRebase(args[1]);
+        hist.iRebase(args[1], null);
         writeHistory(hist);
     }
 
     /**
-     * Code adapted from http://www.tutorialspoint.com/java/java_serialization.htm
-     * Serializes the given History object and writes it to the .gitlet directory.
+     * Runs the filesystem watcher until it is stopped, if no additional
+     * arguments are supplied, or stops the running watcher if the only
+     * additional argument is --stop.
+     */
+    private static void fsmonitor(String[] args) {
+        if (new File(".gitlet").isFile()) {
+            System.out.println("The watcher only runs in the main working tree.");
+        } else if (args.length == 2 && args[1].equals("--stop")) {
+            Watcher.stop();
+        } else if (args.length == 1) {
+            Watcher.run();
+        } else {
+            System.out.println("Fsmonitor requires no additional arguments, or --stop.");
+        }
+    }
+
+    /**
+     * Calls the addRemote method of the History object if two additional
+     * arguments (the remote name and the path of its .gitlet directory)
+     * are supplied.
+     */
+    private static void addRemote(String[] args, History hist) {
+        if (args.length != 3) {
+            System.out.println("Add-remote requires two arguments.");
+            return;
+        }
+        hist.addRemote(args[1], args[2].replace('/', File.separatorChar));
+        writeHistory(hist);
+    }
+
+    /**
+     * Calls the fetch method of the History object if two additional
+     * arguments (the remote name and a branch name) are supplied.
+     */
+    private static void fetch(String[] args, History hist) {
+        if (args.length != 3) {
+            System.out.println("Fetch requires two arguments.");
+            return;
+        }
+        if (hist.fetch(args[1], args[2]) != null) {
+            writeHistory(hist);
+        }
+    }
+
+    /**
+     * Calls the push method of the History object if two additional
+     * arguments (the remote name and a branch name) are supplied.
+     */
+    private static void push(String[] args, History hist) {
+        if (args.length != 3) {
+            System.out.println("Push requires two arguments.");
+            return;
+        }
+        if (hist.push(args[1], args[2])) {
+            writeHistory(hist);
+        }
+    }
+
+    /**
+     * Calls the pull method of the History object if two additional
+     * arguments (the remote name and a branch name) are supplied.
+     */
+    private static void pull(String[] args, History hist) {
+        if (args.length != 3) {
+            System.out.println("Pull requires two arguments.");
+            return;
+        }
+        hist.pull(args[1], args[2]);
+        writeHistory(hist);
+    }
+
+    /**
+     * Calls the addWorktree method of the History object if the additional
+     * arguments are add, a directory and a branch name, the removeWorktree
+     * method if they are remove and a directory, or the listWorktrees
+     * method if the only one is list.
+     */
+    private static void worktree(String[] args, History hist) {
+        if (args.length == 4 && args[1].equals("add")) {
+            if (hist.addWorktree(args[2].replace('/', File.separatorChar), args[3])) {
+                writeHistory(hist);
+            }
+        } else if (args.length == 3 && args[1].equals("remove")) {
+            if (hist.removeWorktree(args[2].replace('/', File.separatorChar))) {
+                writeHistory(hist);
+            }
+        } else if (args.length == 2 && args[1].equals("list")) {
+            hist.listWorktrees();
+        } else {
+            System.out.println("Worktree requires add with a directory and a branch, "
+                + "remove with a directory, or list.");
+        }
+    }
+
+    /**
+     * Calls the gc method of the History object. Unreachable Commits and
+     * unused stored files are only removed once two weeks old, unless the
+     * only additional argument is --prune=now, or --prune= followed by a
+     * date (yyyy-MM-dd, or yyyy-MM-dd HH:mm:ss) to remove those older
+     * than it.
+     */
+    private static void gc(String[] args, History hist) {
+        long cutoff = System.currentTimeMillis() - GC_GRACE_MILLIS;
+        if (args.length == 2 && args[1].startsWith("--prune=")) {
+            String date = args[1].substring("--prune=".length());
+            try {
+                cutoff = date.equals("now") ? System.currentTimeMillis() : parseTime(date, false);
+            } catch (DateTimeParseException e) {
+                System.out.println("Dates must be formatted as yyyy-MM-dd"
+                    + " or yyyy-MM-dd HH:mm:ss.");
+                return;
+            }
+        } else if (args.length != 1) {
+            System.out.println("Gc requires no additional arguments, or --prune=.");
+            return;
+        }
+        hist.gc(cutoff);
+        writeHistory(hist);
+    }
+
+    /**
+     * Calls the sparseCheckout method of the History object if the
+     * additional arguments are set followed by at least one path prefix,
+     * the disableSparseCheckout method if the only one is disable, or the
+     * listSparseCheckout method if the only one is list.
+     */
+    private static void sparseCheckout(String[] args, History hist) {
+        if (args.length > 2 && args[1].equals("set")) {
+            ArrayList<String> prefixes = new ArrayList<String>();
+            for (int i = 2; i < args.length; i++) {
+                prefixes.add(args[i].replace('/', File.separatorChar));
+            }
+            hist.sparseCheckout(prefixes);
+            writeHistory(hist);
+        } else if (args.length == 2 && args[1].equals("disable")) {
+            hist.disableSparseCheckout();
+            writeHistory(hist);
+        } else if (args.length == 2 && args[1].equals("list")) {
+            hist.listSparseCheckout();
+        } else {
+            System.out.println("Sparse-checkout requires set with at least one path, "
+                + "disable, or list.");
+        }
+    }
+
+    /**
+     * Calls the shallow method of the History object. The options --depth,
+     * taking the number of Commits to keep, and --since, taking a date
+     * (yyyy-MM-dd, or yyyy-MM-dd HH:mm:ss), come first, and at least one
+     * is required. Any remaining arguments are the names of the Branches
+     * to keep.
+     */
+    private static void shallow(String[] args, History hist) {
+        int depth = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        int i = 1;
+        try {
+            while (i + 1 < args.length && args[i].startsWith("--")) {
+                if (args[i].equals("--depth")) {
+                    depth = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("--since")) {
+                    since = parseTime(args[i + 1], false);
+                } else {
+                    System.out.println("Unrecognized shallow option.");
+                    return;
+                }
+                i += 2;
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("Dates must be formatted as yyyy-MM-dd or yyyy-MM-dd HH:mm:ss.");
+            return;
+        } catch (NumberFormatException e) {
+            System.out.println("The depth must be a number.");
+            return;
+        }
+        if (i == 1 || depth < 1) {
+            System.out.println("Shallow requires --depth with a positive number, "
+                + "or --since with a date.");
+            return;
+        }
+        hist.shallow(depth, since, Arrays.asList(args).subList(i, args.length));
+        writeHistory(hist);
+    }
+
+    /**
+     * Calls the deepen method of the History object if two additional
+     * arguments (the remote name and the number of Commits to add behind
+     * each grafted root) are supplied.
+     */
+    private static void deepen(String[] args, History hist) {
+        if (args.length != 3) {
+            System.out.println("Deepen requires two arguments.");
+            return;
+        }
+        int depth = 0;
+        try {
+            depth = Integer.parseInt(args[2]);
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        if (depth < 1) {
+            System.out.println("The depth must be a positive number.");
+            return;
+        }
+        if (hist.deepen(args[1], depth)) {
+            writeHistory(hist);
+        }
+    }
+
+    /**
+     * Calls the archive method of the History object if two additional
+     * arguments (a Branch name or Commit ID, and the output path or "-"
+     * for standard output) are supplied, optionally preceded by
+     * --format=tar or --format=zip. Without a format, paths ending in
+     * .zip get a zip archive and everything else a tar archive.
+     */
+    private static void archive(String[] args, History hist) {
+        int first = 1;
+        String format = null;
+        if (args.length > 1 && args[1].startsWith("--format=")) {
+            format = args[1].substring("--format=".length());
+            if (!format.equals("tar") && !format.equals("zip")) {
+                System.out.println("The format must be tar or zip.");
+                return;
+            }
+            first = 2;
+        }
+        if (args.length != first + 2) {
+            System.out.println("Archive requires a commit and an output path.");
+            return;
+        }
+        boolean zip = (format == null) ? args[first + 1].endsWith(".zip") : format.equals("zip");
+        if (!hist.archive(args[first], args[first + 1], zip)) {
+            PrintStream errors = args[first + 1].equals("-") ? System.err : System.out;
+            errors.println("No commit with that id exists.");
+        }
+    }
+
+    /**
+     * Calls the fsck method of the History object if no additional
+     * arguments are supplied.
+     */
+    private static void fsck(String[] args, History hist) {
+        if (args.length != 1) {
+            System.out.println("Fsck requires no additional arguments.");
+            return;
+        }
+        hist.fsck();
+    }
+
+    /**
+     * Returns the path of the .gitlet directory of the repository and the
+     * name of the working tree the current directory is. In a working tree
+     * added with the worktree command, .gitlet is a file holding both on
+     * separate lines. Returns null if it cannot be read.
+     */
+    private static String[] locate() {
+        File gitlet = new File(".gitlet");
+        if (!gitlet.isFile()) {
+            return new String[] {".gitlet", History.MAIN_WORKTREE};
+        }
+        try {
+            List<String> lines = Files.readAllLines(gitlet.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() == 2) {
+                return lines.toArray(new String[0]);
+            }
+        } catch (IOException e) {
+            // Reported below.
+        }
+        System.out.println("Could not read the .gitlet file.");
+        return null;
+    }
+
+    /**
+     * Returns an exclusive lock on the repository whose .gitlet directory
+     * is given, waiting for any other process holding it, so that commands
+     * run from different working trees do not overwrite each other's
+     * changes. Returns null if it could not be locked.
+     */
+    public static FileLock lock(String dir) {
+        FileChannel channel = null;
+        try {
+            Path path = Paths.get(dir, "lock").toAbsolutePath().normalize();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = channel.lock();
+            HELD.put(path, lock);
+            return lock;
+        } catch (IOException | OverlappingFileLockException e) {
+            System.out.println("Could not lock the repository.");
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException c) {
+                    // Already failing.
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if this process holds the lock on the repository whose
+     * .gitlet directory is given.
+     */
+    public static boolean holdsLock(String dir) {
+        return HELD.containsKey(Paths.get(dir, "lock").toAbsolutePath().normalize());
+    }
+
+    /**
+     * Releases the given lock, if it is not null.
+     */
+    public static void unlock(FileLock lock) {
+        if (lock == null) {
+            return;
+        }
+        HELD.values().remove(lock);
+        try {
+            lock.channel().close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Serializes the given History object and writes it to its .gitlet directory.
      */
     private static void writeHistory(History hist) {
+        writeHistory(hist, hist.getDirectory());
+    }
+
+    /**
+     * Code adapted from http://www.tutorialspoint.com/java/java_serialization.htm
+     * Serializes the given History object and writes it to the given
+     * .gitlet directory.
+     */
+    public static void writeHistory(History hist, String dir) {
         try {
-            FileOutputStream fileOut = new FileOutputStream(".gitlet/history.ser");
+            File temp = new File(dir, "history.ser.tmp");
+            FileOutputStream fileOut = new FileOutputStream(temp);
             ObjectOutputStream out = new ObjectOutputStream(fileOut);
             out.writeObject(hist);
             out.close();
             fileOut.close();
+            Files.move(temp.toPath(), Paths.get(dir, "history.ser"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -301,17 +886,20 @@ public class Gitlet {
 
     /**
      * Code adapted from http://www.tutorialspoint.com/java/java_serialization.htm
-     * Reads and deserializes the .gitlet/history.ser History object and returns it.
-     * If it doesn't exist, returns null.
+     * Reads and deserializes the history.ser History object in the given
+     * .gitlet directory and returns it. If it doesn't exist, returns null.
     */
-    private static History readHistory() {
+    public static History readHistory(String dir) {
         try {
-            FileInputStream fileIn = new FileInputStream(".gitlet/history.ser");
+            FileInputStream fileIn = new FileInputStream(dir + "/history.ser");
             ObjectInputStream in = new ObjectInputStream(fileIn);
             History hist = (History) in.readObject();
             in.close();
             fileIn.close();
+            hist.selectWorktree(History.MAIN_WORKTREE, dir);
             return hist;
+        } catch (EOFException | ObjectStreamException e) {
+            System.out.println("The history in " + dir + " is truncated or corrupt.");
         } catch (IOException i) {
             i.printStackTrace();
         } catch (ClassNotFoundException c) {
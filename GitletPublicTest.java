@@ -1,5 +1,6 @@
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
@@ -11,7 +12,12 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.ZipFile;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -135,6 +141,25 @@ public class GitletPublicTest {
         assertEquals("This might be a wug.", getText(wugFileName));
     }
 
+    /**
+     * Tests that checkout with a commit ID restores a file which that
+     * commit did not change itself.
+     */
+    @Test
+    public void testCheckoutUnchangedFile() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        createFile(TESTING_DIR + "wug2.txt", "Hi");
+        gitlet("add", TESTING_DIR + "wug2.txt");
+        gitlet("commit", "added wug2");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("checkout", "2", wugFileName);
+        assertEquals("This is a wug.", getText(wugFileName));
+    }
+
     /**
      * Test branching works properly by comparing the same file which
      * have been modified in different branching after running checkout.
@@ -288,7 +313,8 @@ public class GitletPublicTest {
         gitlet("add", wugFileName);
         gitlet("commit", "changed might be wug");
         gitlet("merge", "master");
-        assertEquals("This is not a wug.", getText(TESTING_DIR + "wug.txt.conflicted"));
+        assertEquals("<<<<<<< second\nThis might be a wug.\n=======\n"
+            + "This is not a wug.\n>>>>>>> master\n", getText(wugFileName));
     }
 
     /**
@@ -309,7 +335,87 @@ public class GitletPublicTest {
         gitlet("add", wugFileName);
         gitlet("commit", "changed might be wug");
         gitlet("merge", "master");
-        assertEquals("This is a wug.", getText(TESTING_DIR + "wug.txt.conflicted"));
+        assertEquals("<<<<<<< second\nThis might be a wug.\n=======\n"
+            + "This is a wug.\n>>>>>>> master\n", getText(wugFileName));
+    }
+
+    /**
+     * Tests that merge combines changes to different lines of a file made
+     * by both branches without a conflict.
+     */
+    @Test
+    public void testMergeLines() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "a\nb\nc\nd\ne\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "second");
+        writeFile(wugFileName, "A\nb\nc\nd\ne\n");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed first line");
+        gitlet("checkout", "second");
+        writeFile(wugFileName, "a\nb\nc\nd\nE\n");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed last line");
+        String output = gitlet("merge", "master");
+        assertFalse(output.contains("conflict"));
+        assertEquals("A\nb\nc\nd\nE\n", getText(wugFileName));
+    }
+
+    /**
+     * Tests that merging lines keeps bytes which are not valid UTF-8.
+     */
+    @Test
+    public void testMergeLinesLatin1() throws IOException {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        Path wug = Paths.get(wugFileName);
+        Files.write(wug, "a\ncaf\u00e9\nb\n".getBytes(StandardCharsets.ISO_8859_1));
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "second");
+        Files.write(wug, "A\ncaf\u00e9\nb\n".getBytes(StandardCharsets.ISO_8859_1));
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed first line");
+        gitlet("checkout", "second");
+        Files.write(wug, "a\ncaf\u00e9\nB\n".getBytes(StandardCharsets.ISO_8859_1));
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed last line");
+        assertFalse(gitlet("merge", "master").contains("conflict"));
+        assertEquals("A\ncaf\u00e9\nB\n",
+            new String(Files.readAllBytes(wug), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Tests that merge takes several branches at once, combining their
+     * changes to the same file.
+     */
+    @Test
+    public void testMergeSeveral() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String notwugFileName = TESTING_DIR + "notwug.txt";
+        createFile(wugFileName, "a\nb\nc\nd\ne\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "first");
+        gitlet("branch", "second");
+        gitlet("checkout", "first");
+        writeFile(wugFileName, "A\nb\nc\nd\ne\n");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed first line");
+        gitlet("checkout", "second");
+        writeFile(wugFileName, "a\nb\nc\nd\nE\n");
+        createFile(notwugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("add", notwugFileName);
+        gitlet("commit", "changed last line");
+        gitlet("checkout", "master");
+        String output = gitlet("merge", "first", "second");
+        assertFalse(output.contains("conflict"));
+        assertEquals("A\nb\nc\nd\nE\n", getText(wugFileName));
+        assertEquals("This is not a wug.", getText(notwugFileName));
     }
 
     /**
@@ -453,6 +559,753 @@ public class GitletPublicTest {
                 extractCommitMessages(logContent));
     }
 
+    /**
+     * Tests that rebase keeps a file which the current branch removed if
+     * the given branch changed it, and applies later changes on top.
+     */
+    @Test
+    public void testRebaseReplay() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String notwugFileName = TESTING_DIR + "notwug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "second");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("checkout", "second");
+        gitlet("rm", wugFileName);
+        gitlet("commit", "removed wug");
+        createFile(notwugFileName, "This is not a wug.");
+        gitlet("add", notwugFileName);
+        gitlet("commit", "added notwug");
+        gitlet("rebase", "master");
+        assertEquals("This is not a wug.", getText(wugFileName));
+        assertEquals("This is not a wug.", getText(notwugFileName));
+        gitlet("checkout", "master");
+        writeFile(wugFileName, "");
+        gitlet("checkout", "second");
+        gitlet("checkout", wugFileName);
+        assertEquals("This is not a wug.", getText(wugFileName));
+    }
+
+    /**
+     * Tests that i-rebase follows a plan file without prompting.
+     */
+    @Test
+    public void testRebasePlan() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String planFileName = TESTING_DIR + "plan.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "second");
+        createFile(TESTING_DIR + "wug2.txt", "Hi");
+        gitlet("add", TESTING_DIR + "wug2.txt");
+        gitlet("commit", "added wug2");
+        gitlet("checkout", "second");
+        for (int i = 1; i <= 3; i++) {
+            writeFile(wugFileName, "This is wug " + i + ".");
+            gitlet("add", wugFileName);
+            gitlet("commit", "wug " + i);
+        }
+        createFile(planFileName, "pick 3\nskip 4\nreword 5 last wug\n");
+        String output = gitlet("i-rebase", "--yes", "master", "--plan", planFileName);
+        assertFalse(output.contains("Would you like"));
+        assertFalse(output.contains("Warning"));
+        assertArrayEquals(new String[] { "last wug", "wug 1", "added wug2",
+            "added wug", "initial commit" }, extractCommitMessages(gitlet("log")));
+        assertEquals("This is wug 3.", getText(wugFileName));
+
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "--yes", "--yes");
+        assertEquals("--yes", extractCommitMessages(gitlet("log"))[0]);
+    }
+
+    /**
+     * Tests that push copies new commits to a remote, that fetch copies
+     * them back into a branch named after the remote, and that push
+     * refuses to overwrite commits it does not have or a branch checked
+     * out in the remote.
+     */
+    @Test
+    public void testRemote() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String remoteDir = TESTING_DIR + "remote/" + GITLET_DIR;
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        copyDirectory(GITLET_DIR, remoteDir);
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("add-remote", "origin", remoteDir);
+        assertEquals("Cannot push to a branch checked out in the remote.\n",
+            gitlet("push", "origin", "master"));
+        assertEquals("", gitlet("push", "origin", "side"));
+
+        recursiveDelete(new File(GITLET_DIR));
+        writeFile(wugFileName, "");
+        gitlet("init");
+        gitlet("add-remote", "origin", remoteDir);
+        gitlet("fetch", "origin", "side");
+        gitlet("checkout", "origin/side");
+        assertEquals("This is not a wug.", getText(wugFileName));
+        assertArrayEquals(new String[] { "changed wug", "added wug", "initial commit" },
+            extractCommitMessages(gitlet("log")));
+
+        gitlet("checkout", "master");
+        createFile(TESTING_DIR + "wug2.txt", "Hi");
+        gitlet("add", TESTING_DIR + "wug2.txt");
+        gitlet("commit", "added wug2");
+        assertEquals("Please pull down remote changes before pushing.",
+            gitlet("push", "origin", "side").trim());
+    }
+
+    /**
+     * Tests that fetch copies commit messages longer than 64KB.
+     */
+    @Test
+    public void testFetchLongMessage() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String remoteDir = TESTING_DIR + "remote/" + GITLET_DIR;
+        char[] chars = new char[70000];
+        Arrays.fill(chars, 'w');
+        String message = new String(chars);
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", message);
+        copyDirectory(GITLET_DIR, remoteDir);
+
+        recursiveDelete(new File(GITLET_DIR));
+        gitlet("init");
+        gitlet("add-remote", "origin", remoteDir);
+        assertEquals("", gitlet("fetch", "origin", "master"));
+        gitlet("checkout", "origin/master");
+        assertArrayEquals(new String[] { message, "initial commit" },
+            extractCommitMessages(gitlet("log")));
+    }
+
+    /**
+     * Tests that clone copies the history of a repository and checks out
+     * its current branch.
+     */
+    @Test
+    public void testClone() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String originDir = TESTING_DIR + "origin/" + GITLET_DIR;
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        copyDirectory(GITLET_DIR, originDir);
+        recursiveDelete(new File(GITLET_DIR));
+        new File(wugFileName).delete();
+
+        gitlet("clone", originDir);
+        assertEquals("This is a wug.", getText(wugFileName));
+        assertArrayEquals(new String[] { "added wug", "initial commit" },
+            extractCommitMessages(gitlet("log")));
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        assertEquals("", gitlet("push", "origin", "side"));
+    }
+
+    /**
+     * Tests that clone --shared stores no files of its own, reading them
+     * from the source through the alternates file, while new ones are
+     * stored locally.
+     */
+    @Test
+    public void testCloneShared() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String originDir = TESTING_DIR + "origin/" + GITLET_DIR;
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        copyDirectory(GITLET_DIR, originDir);
+        recursiveDelete(new File(GITLET_DIR));
+        new File(wugFileName).delete();
+
+        gitlet("clone", "--shared", originDir);
+        assertTrue(new File(GITLET_DIR + "alternates").isFile());
+        assertFalse(new File(GITLET_DIR + "1").exists());
+        assertEquals("This is a wug.", getText(wugFileName));
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        assertTrue(new File(GITLET_DIR + "2/" + wugFileName).isFile());
+        gitlet("checkout", "1", wugFileName);
+        assertEquals("This is a wug.", getText(wugFileName));
+
+        String sharedDir = TESTING_DIR + "shared/" + GITLET_DIR;
+        copyDirectory(GITLET_DIR, sharedDir);
+        recursiveDelete(new File(GITLET_DIR));
+        gitlet("clone", sharedDir);
+        assertTrue(new File(GITLET_DIR + "1/" + wugFileName).isFile());
+        assertTrue(gitlet("fsck").endsWith("0 missing, 0 corrupt, 0 unverified, 0 orphaned.\n"));
+    }
+
+    /**
+     * Tests that gc keeps unreachable commits during the grace period, and
+     * removes them and their stored files with --prune=now.
+     */
+    @Test
+    public void testGc() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "other");
+        gitlet("checkout", "other");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("checkout", "master");
+        gitlet("rm-branch", "other");
+        assertEquals("Removed 0 commits and 0 stored directories.\n", gitlet("gc"));
+        assertEquals("Removed 1 commits and 1 stored directories.\n",
+            gitlet("gc", "--prune=now"));
+        assertFalse(new File(GITLET_DIR + "2").exists());
+        assertEquals("This is a wug.", getText(wugFileName));
+        assertEquals("Found no commit with that message.\n", gitlet("find", "changed wug"));
+        assertArrayEquals(new String[] { "added wug", "initial commit" },
+            extractCommitMessages(gitlet("global-log")));
+    }
+
+    /**
+     * Tests that fetch can copy a branch whose files are stored by
+     * commits which gc collected after a rebase.
+     */
+    @Test
+    public void testFetchAfterGc() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String remoteDir = TESTING_DIR + "remote/" + GITLET_DIR;
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "other");
+        createFile(TESTING_DIR + "wug2.txt", "Hi");
+        gitlet("add", TESTING_DIR + "wug2.txt");
+        gitlet("commit", "added wug2");
+        gitlet("checkout", "other");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("rebase", "master");
+        gitlet("gc", "--prune=now");
+        copyDirectory(GITLET_DIR, remoteDir);
+
+        recursiveDelete(new File(GITLET_DIR));
+        gitlet("init");
+        gitlet("add-remote", "origin", remoteDir);
+        assertEquals("", gitlet("fetch", "origin", "other"));
+        gitlet("checkout", "origin/other");
+        assertEquals("This is not a wug.", getText(wugFileName));
+    }
+
+    /**
+     * Tests that merge still works when a file of the merged branch is
+     * stored by a commit which gc collected.
+     */
+    @Test
+    public void testMergeAfterGc() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String wug2FileName = TESTING_DIR + "wug2.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "other");
+        createFile(wug2FileName, "Hi");
+        gitlet("add", wug2FileName);
+        gitlet("commit", "added wug2");
+        gitlet("checkout", "other");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("rebase", "master");
+        gitlet("gc", "--prune=now");
+        gitlet("checkout", "master");
+        writeFile(wugFileName, "This might be a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug again");
+        gitlet("merge", "other");
+        assertTrue(getText(wugFileName).contains("This is not a wug."));
+        assertTrue(getText(wugFileName).contains("This might be a wug."));
+    }
+
+    /**
+     * Tests that fsck reports corrupt, missing and orphaned stored files,
+     * and a truncated history.
+     */
+    @Test
+    public void testFsck() throws IOException {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        assertEquals("Checked 3 commits and 2 stored files: "
+            + "0 missing, 0 corrupt, 0 unverified, 0 orphaned.\n", gitlet("fsck"));
+
+        writeFile(GITLET_DIR + "1/" + wugFileName, "This is a rotten wug.");
+        new File(GITLET_DIR + "2/" + wugFileName).delete();
+        createFile(GITLET_DIR + "1/stray.txt", "This is a stray.");
+        String output = gitlet("fsck");
+        assertTrue(output.contains("corrupt 1/" + wugFileName));
+        assertTrue(output.contains("missing 2/" + wugFileName + "\n"));
+        assertTrue(output.contains("orphaned 1/stray.txt\n"));
+        assertTrue(output.endsWith("1 missing, 1 corrupt, 0 unverified, 1 orphaned.\n"));
+
+        Path history = Paths.get(GITLET_DIR + "history.ser");
+        byte[] data = Files.readAllBytes(history);
+        Files.write(history, Arrays.copyOf(data, data.length / 2));
+        assertEquals("The history in .gitlet is truncated or corrupt.\n", gitlet("fsck"));
+    }
+
+    /**
+     * Tests that sparse-checkout removes files outside its paths, that
+     * checkout and status leave them alone, and that disable restores them.
+     */
+    @Test
+    public void testSparseCheckout() {
+        String wugFileName = TESTING_DIR + "in/wug.txt";
+        String notwugFileName = TESTING_DIR + "out/notwug.txt";
+        new File(TESTING_DIR + "in").mkdirs();
+        new File(TESTING_DIR + "out").mkdirs();
+        createFile(wugFileName, "This is a wug.");
+        createFile(notwugFileName, "This is not a wug.");
+        gitlet("init");
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "added wugs");
+        gitlet("branch", "other");
+        assertEquals("", gitlet("sparse-checkout", "set", TESTING_DIR + "in"));
+        assertFalse(new File(notwugFileName).exists());
+        assertEquals(TESTING_DIR + "in\n", gitlet("sparse-checkout", "list"));
+        assertFalse(gitlet("status").contains("notwug.txt"));
+        gitlet("checkout", "other");
+        assertFalse(new File(notwugFileName).exists());
+        assertEquals("This is a wug.", getText(wugFileName));
+        gitlet("sparse-checkout", "disable");
+        assertEquals("This is not a wug.", getText(notwugFileName));
+
+        writeFile(notwugFileName, "This might be a wug.");
+        gitlet("sparse-checkout", "set", TESTING_DIR + "in");
+        assertEquals("This might be a wug.", getText(notwugFileName));
+        assertTrue(gitlet("status").contains(notwugFileName + " (modified)\n"));
+    }
+
+    /**
+     * Tests that shallow drops older commits but keeps the files of the
+     * remaining ones, and that deepen fetches them back from a remote.
+     */
+    @Test
+    public void testShallow() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String remoteDir = TESTING_DIR + "remote/" + GITLET_DIR;
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        createFile(TESTING_DIR + "wug2.txt", "Hi");
+        gitlet("add", TESTING_DIR + "wug2.txt");
+        gitlet("commit", "added wug2");
+        copyDirectory(GITLET_DIR, remoteDir);
+        gitlet("add-remote", "origin", remoteDir);
+
+        assertEquals("Kept 1 commits, removed 3 commits and 1 stored directories.\n",
+            gitlet("shallow", "--depth", "1"));
+        assertArrayEquals(new String[] { "added wug2" }, extractCommitMessages(gitlet("log")));
+        assertEquals("This is not a wug.", getText(wugFileName));
+        assertTrue(gitlet("fsck").endsWith("0 missing, 0 corrupt, 1 unverified, 0 orphaned.\n"));
+
+        gitlet("deepen", "origin", "1");
+        assertArrayEquals(new String[] { "added wug2", "changed wug" },
+            extractCommitMessages(gitlet("log")));
+        gitlet("deepen", "origin", "10");
+        assertArrayEquals(new String[] { "added wug2", "changed wug", "added wug",
+            "initial commit" }, extractCommitMessages(gitlet("log")));
+    }
+
+    /**
+     * Tests that archive writes the files of a commit to a tar or zip
+     * archive without changing the working directory.
+     */
+    @Test
+    public void testArchive() throws IOException {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "This is not a wug.");
+        assertEquals("", gitlet("archive", "1", TESTING_DIR + "out.tar"));
+        byte[] tar = Files.readAllBytes(Paths.get(TESTING_DIR + "out.tar"));
+        assertEquals(4 * 512, tar.length);
+        assertEquals(wugFileName, new String(tar, 0, wugFileName.length(),
+            StandardCharsets.UTF_8));
+        assertEquals("This is a wug.", new String(tar, 512, 14, StandardCharsets.UTF_8));
+
+        assertEquals("", gitlet("archive", "master", TESTING_DIR + "out.zip"));
+        try (ZipFile zip = new ZipFile(TESTING_DIR + "out.zip")) {
+            assertEquals(1, zip.size());
+            assertEquals(14, zip.getEntry(wugFileName).getSize());
+        }
+        assertEquals("This is not a wug.", getText(wugFileName));
+        assertEquals("No commit with that id exists.\n",
+            gitlet("archive", "5", TESTING_DIR + "out.tar"));
+    }
+
+    /**
+     * Tests that worktree add copies the files of a branch to a new
+     * directory, and that the branch cannot then be checked out or removed
+     * elsewhere.
+     */
+    @Test
+    public void testWorktree() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String worktreeDir = TESTING_DIR + "side/";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "side");
+        assertEquals("", gitlet("worktree", "add", worktreeDir, "side"));
+        assertEquals("This is a wug.", getText(worktreeDir + wugFileName));
+        assertTrue(new File(worktreeDir + GITLET_DIR).isFile());
+        assertEquals("That branch is checked out in another working tree.\n",
+            gitlet("checkout", "side"));
+        assertEquals("Cannot remove a branch checked out in another working tree.\n",
+            gitlet("rm-branch", "side"));
+        assertEquals("", gitlet("worktree", "remove", worktreeDir));
+        assertEquals("", gitlet("rm-branch", "side"));
+    }
+
+    /**
+     * Tests that find can search commit messages by token, prefix and
+     * substring, ignoring case whatever the default locale, and by exact
+     * message.
+     */
+    @Test
+    public void testFindIndex() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "Fix JIRA-1234 wug");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "jira-12 follow up");
+        assertEquals("1\n", gitlet("find", "--token", "1234"));
+        assertEquals("1\n2\n", gitlet("find", "--prefix", "JIR"));
+        assertEquals("1\n", gitlet("find", "--contains", "a-1234 W"));
+        assertEquals("1\n2\n", gitlet("find", "--contains", "ira-12"));
+        assertEquals("Found no commit with that message.\n",
+                gitlet("find", "--contains", "jira-99"));
+
+        writeFile(wugFileName, "This is a wug again.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "Fix JIRA-1234 wug");
+        writeFile(wugFileName, "This is a wug for good.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "...");
+        assertEquals("1\n3\n", gitlet("find", "Fix JIRA-1234 wug"));
+        assertEquals("4\n", gitlet("find", "..."));
+        assertEquals("Found no commit with that message.\n", gitlet("find", "fix jira-1234 wug"));
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr"));
+            assertEquals("1\n3\n", gitlet("find", "--token", "FIX"));
+            assertEquals("1\n3\n", gitlet("find", "--contains", "FIX JIRA"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    /**
+     * Tests that log with a filename or directory only prints the commits
+     * of the current branch which changed that file or directory, also
+     * when the path starts with "./" or is the working directory.
+     */
+    @Test
+    public void testLogPath() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String wug2FileName = TESTING_DIR + "wug2.txt";
+        createFile(wugFileName, "This is a wug.");
+        createFile(wug2FileName, "Hi");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("add", wug2FileName);
+        gitlet("commit", "added wug2");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed wug");
+        gitlet("rm", wug2FileName);
+        gitlet("commit", "removed wug2");
+        assertArrayEquals(new String[] { "changed wug", "added wug" },
+                extractCommitMessages(gitlet("log", wugFileName)));
+        assertArrayEquals(new String[] { "removed wug2", "added wug2" },
+                extractCommitMessages(gitlet("log", wug2FileName)));
+        assertArrayEquals(new String[] { "removed wug2", "changed wug", "added wug2",
+            "added wug" }, extractCommitMessages(gitlet("log", TESTING_DIR)));
+        assertArrayEquals(new String[] { "changed wug", "added wug" },
+                extractCommitMessages(gitlet("log", "./" + wugFileName)));
+        assertArrayEquals(new String[] { "removed wug2", "changed wug", "added wug2",
+            "added wug" }, extractCommitMessages(gitlet("log", "./" + TESTING_DIR)));
+        assertArrayEquals(new String[] { "removed wug2", "changed wug", "added wug2",
+            "added wug" }, extractCommitMessages(gitlet("log", ".")));
+    }
+
+    /**
+     * Tests that log can print and count the commits in a range of two
+     * branches, and that branch can list the branches containing a commit.
+     */
+    @Test
+    public void testLogRange() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "second");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed to not wug");
+        writeFile(wugFileName, "This might be a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed might be wug");
+        assertArrayEquals(new String[] { "changed might be wug", "changed to not wug" },
+                extractCommitMessages(gitlet("log", "second..master")));
+        assertEquals("2\n", gitlet("log", "--count", "second..master"));
+        assertEquals("0\n", gitlet("log", "--count", "master..second"));
+        assertEquals("master\n", gitlet("branch", "--contains", "2"));
+        assertEquals(2, gitlet("branch", "--contains", "1").split("\n").length);
+    }
+
+    /**
+     * Tests that global-log prints every commit from the most recent,
+     * and can be paged through with --limit and --cursor.
+     */
+    @Test
+    public void testGlobalLogPaging() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        gitlet("branch", "second");
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("add", wugFileName);
+        gitlet("commit", "changed to not wug");
+        assertArrayEquals(new String[] { "changed to not wug", "added wug", "initial commit" },
+                extractCommitMessages(gitlet("global-log")));
+
+        String page = gitlet("global-log", "--limit", "2");
+        String[] lines = page.split(LINE_SEPARATOR);
+        String cursor = lines[lines.length - 1];
+        assertTrue(cursor.startsWith("Cursor: "));
+        page = gitlet("global-log", "--cursor", cursor.substring(8));
+        assertArrayEquals(new String[] { "initial commit" }, extractCommitMessages(page));
+        assertEquals("", gitlet("global-log", "--until", "2000-01-01"));
+        assertEquals("The limit must be a positive number.\n",
+            gitlet("global-log", "--limit", "0"));
+    }
+
+    /**
+     * Tests that status reports modified, deleted and untracked files.
+     */
+    @Test
+    public void testStatusWorkingTree() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String wug2FileName = TESTING_DIR + "wug2.txt";
+        String wug3FileName = TESTING_DIR + "wug3.txt";
+        createFile(wugFileName, "This is a wug.");
+        createFile(wug2FileName, "Hi");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("add", wug2FileName);
+        gitlet("commit", "added wugs");
+        String status = gitlet("status");
+        assertTrue(!status.contains(wugFileName));
+
+        writeFile(wugFileName, "This is not a wug.");
+        new File(wug2FileName).delete();
+        createFile(wug3FileName, "Bye");
+        status = gitlet("status");
+        assertTrue(status.contains(wugFileName + " (modified)\n"));
+        assertTrue(status.contains(wug2FileName + " (deleted)\n"));
+        assertTrue(extractUntrackedFiles(status).contains(wug3FileName));
+
+        File history = new File(GITLET_DIR + "history.ser");
+        history.setLastModified(0);
+        gitlet("status");
+        assertEquals(0, history.lastModified());
+    }
+
+    /**
+     * Tests that status and diff report edits made to a file after it
+     * was staged, and that commit stores the staged copy.
+     */
+    @Test
+    public void testStatusStagedEdit() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        writeFile(wugFileName, "This is not a wug.\n");
+        assertTrue(gitlet("status").contains(wugFileName + " (modified)\n"));
+        assertTrue(gitlet("diff").contains("+This is not a wug.\n"));
+        new File(wugFileName).delete();
+        assertTrue(gitlet("status").contains(wugFileName + " (deleted)\n"));
+        gitlet("commit", "added wug");
+        gitlet("checkout", wugFileName);
+        assertEquals("This is a wug.\n", getText(wugFileName));
+    }
+
+    /**
+     * Tests that status still notices modified and untracked files when
+     * it only looks at the paths journaled by a running watcher.
+     */
+    @Test
+    public void testStatusWithWatcher() throws InterruptedException {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        String wug2FileName = TESTING_DIR + "wug2.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        Thread watcher = new Thread(() -> Watcher.run());
+        watcher.start();
+        try {
+            for (int i = 0; i < 100 && !new File(GITLET_DIR + "fsmonitor.alive").exists(); i++) {
+                Thread.sleep(20);
+            }
+            String status = gitlet("status");
+            assertTrue(!status.contains(wugFileName));
+
+            writeFile(wugFileName, "This is not a wug.");
+            createFile(wug2FileName, "Hi");
+            status = gitlet("status");
+            assertTrue(status.contains(wugFileName + " (modified)\n"));
+            assertTrue(extractUntrackedFiles(status).contains(wug2FileName));
+        } finally {
+            gitlet("fsmonitor", "--stop");
+            watcher.join();
+        }
+    }
+
+    /**
+     * Tests that status does not list untracked files ignored by the
+     * .gitletignore file, including files in ignored directories.
+     */
+    @Test
+    public void testStatusIgnored() {
+        new File(TESTING_DIR + "build").mkdirs();
+        createFile(".gitletignore", "# comment\n" + TESTING_DIR + "build/\n*.log\n!keep.log\n");
+        createFile(TESTING_DIR + "build/out.txt", "built");
+        createFile(TESTING_DIR + "debug.log", "log");
+        createFile(TESTING_DIR + "keep.log", "log");
+        createFile(TESTING_DIR + "wug.txt", "This is a wug.");
+        gitlet("init");
+        String status = gitlet("status");
+        new File(".gitletignore").delete();
+        assertTrue(status.contains(TESTING_DIR + "wug.txt\n"));
+        assertTrue(status.contains(TESTING_DIR + "keep.log\n"));
+        assertTrue(!status.contains("out.txt"));
+        assertTrue(!status.contains("debug.log"));
+    }
+
+    /**
+     * Tests that add stages every changed file of a directory or glob in
+     * one command, and skips unchanged files.
+     */
+    @Test
+    public void testAddDirectoryAndGlob() {
+        new File(TESTING_DIR + "sub").mkdirs();
+        createFile(TESTING_DIR + "wug.txt", "This is a wug.");
+        createFile(TESTING_DIR + "sub/wug2.txt", "Hi");
+        createFile(TESTING_DIR + "sub/notes.md", "Notes");
+        gitlet("init");
+        gitlet("add", TESTING_DIR);
+        gitlet("commit", "added everything");
+        String status = gitlet("status");
+        assertTrue(!status.contains("=== Untracked Files ===\n" + TESTING_DIR));
+
+        writeFile(TESTING_DIR + "sub/wug2.txt", "Bye");
+        writeFile(TESTING_DIR + "sub/notes.md", "More notes");
+        gitlet("add", TESTING_DIR + "**.txt");
+        status = gitlet("status");
+        assertTrue(status.contains("=== Staged Files ===\n" + TESTING_DIR + "sub/wug2.txt\n\n"));
+        assertEquals("File has not been modified since the last commit.\n",
+                gitlet("add", TESTING_DIR + "wug.txt"));
+    }
+
+    /**
+     * Tests that commit saves the contents a file had when it was added,
+     * not the contents it has when committing.
+     */
+    @Test
+    public void testCommitStagedContents() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "This is a wug.");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        writeFile(wugFileName, "This is not a wug.");
+        gitlet("commit", "added wug");
+        gitlet("checkout", "1", wugFileName);
+        assertEquals("This is a wug.", getText(wugFileName));
+    }
+
+    /**
+     * Tests that diff prints unified diffs between two commits, the
+     * staged files and the working directory, and nothing for a file
+     * missing on both sides.
+     */
+    @Test
+    public void testDiff() {
+        String wugFileName = TESTING_DIR + "wug.txt";
+        createFile(wugFileName, "a\nb\nc\n");
+        gitlet("init");
+        gitlet("add", wugFileName);
+        gitlet("commit", "added wug");
+        writeFile(wugFileName, "a\nB\nc\n");
+        String expected = "diff --gitlet a/" + wugFileName + " b/" + wugFileName + "\n"
+            + "--- a/" + wugFileName + "\n" + "+++ b/" + wugFileName + "\n"
+            + "@@ -1,3 +1,3 @@\n a\n-b\n+B\n c\n";
+        assertEquals(expected, gitlet("diff"));
+        assertEquals("", gitlet("diff", "--staged"));
+        gitlet("add", wugFileName);
+        assertEquals("", gitlet("diff"));
+        assertEquals(expected, gitlet("diff", "--staged"));
+        gitlet("commit", "changed wug");
+        assertEquals(expected, gitlet("diff", "1", "2"));
+        assertEquals("", gitlet("diff", "2"));
+
+        String wug2FileName = TESTING_DIR + "wug2.txt";
+        createFile(wug2FileName, "Hi");
+        gitlet("add", wug2FileName);
+        new File(wug2FileName).delete();
+        assertEquals("", gitlet("diff", "2"));
+    }
+
     /**
      * Convenience method for calling Gitlet's main. Anything that is printed
      * out during this call to main will NOT actually be printed out, but will
@@ -548,6 +1401,25 @@ public class GitletPublicTest {
         }
     }
 
+    /**
+     * Copies the directory at the given path and everything in it to the
+     * other given path.
+     */
+    private static void copyDirectory(String from, String to) {
+        try {
+            for (Path source : Files.walk(Paths.get(from)).toArray(Path[]::new)) {
+                Path target = Paths.get(to).resolve(Paths.get(from).relativize(source));
+                if (Files.isDirectory(source)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(source, target);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Deletes the file and all files inside it, if it is a directory.
      */
@@ -575,4 +1447,14 @@ public class GitletPublicTest {
         }
         return messages;
     }
+
+    /**
+     * Returns the files listed in the Untracked Files section of what
+     * status has printed out.
+     */
+    private static List<String> extractUntrackedFiles(String statusOutput) {
+        String header = "=== Untracked Files ===";
+        String section = statusOutput.substring(statusOutput.indexOf(header) + header.length());
+        return Arrays.asList(section.trim().split(LINE_SEPARATOR));
+    }
 }
@@ -1,16 +1,55 @@
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileLock;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
 import java.io.File;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 /**
  * Class that contains all of the Commit tree and Branches data,
@@ -19,13 +58,50 @@ import java.text.SimpleDateFormat;
  * appending the Commit tree and Branches.
  */
 public class History implements Serializable {
+    static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    /* Files modified this recently may change again without their time changing. */
+    private static final long RACY_MILLIS = 2000;
+    private static final String BUNDLE_HEADER = "gitlet bundle 2";
+    /* The file listing the .gitlet directories whose stored files are shared. */
+    static final String ALTERNATES = "alternates";
+    private static final int MAX_ALTERNATE_DEPTH = 5;
+    /* Hashing is mostly waiting for the disk, so use more workers than processors. */
+    private static final int FSCK_WORKERS =
+        Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+    /* How many stored files may wait for a worker before fsck blocks. */
+    private static final int FSCK_QUEUE = 4 * FSCK_WORKERS;
+    /* The name of the working tree containing the .gitlet directory. */
+    static final String MAIN_WORKTREE = "";
+    /* Merged lines are decoded one char per byte so any encoding survives. */
+    private static final Charset BYTES = StandardCharsets.ISO_8859_1;
+
     private HashMap<Integer, Commit> commits;
     private HashMap<String, Branch> branches;
-    private HashMap<String, HashSet<Commit>> messages;
-    private HashSet<String> add;
-    private HashSet<String> remove;
+    private MessageIndex index;
+    private PathIndex paths;
+    private HashMap<Integer, CommitBitmap> reach;
+    private TimeIndex times;
+    private HashMap<String, String> remotes;
+    private HashMap<String, Integer> uids;
+    private HashMap<Integer, String> adopted;
+    private HashMap<String, WorktreeState> worktrees;
+    private TreeSet<String> sparse;
+    private HashMap<Integer, String> grafts;
+    private HashMap<String, Integer> pruned;
     private int nextID;
-    private Branch current;
+    /* The state of the selected working tree, saved to worktrees when written. */
+    private transient String worktree;
+    private transient String dir;
+    private transient HashMap<String, long[]> statCache;
+    private transient String watchToken;
+    private transient TreeMap<String, long[]> snapshot;
+    private transient HashMap<String, String> add;
+    private transient HashSet<String> remove;
+    private transient Branch current;
+    private transient Scanner in;
+    private transient ArrayList<History> alternates;
+    private transient boolean assumeYes;
 
     /**
      * No arguments constructor to instantiate new History object.
@@ -35,108 +111,227 @@ public class History implements Serializable {
     public History() {
         commits = new HashMap<Integer, Commit>();
         branches = new HashMap<String, Branch>();
-        messages = new HashMap<String, HashSet<Commit>>();
-        add = new HashSet<String>();
+        index = new MessageIndex();
+        paths = new PathIndex();
+        reach = new HashMap<Integer, CommitBitmap>();
+        times = new TimeIndex();
+        statCache = new HashMap<String, long[]>();
+        remotes = new HashMap<String, String>();
+        uids = new HashMap<String, Integer>();
+        adopted = new HashMap<Integer, String>();
+        worktrees = new HashMap<String, WorktreeState>();
+        grafts = new HashMap<Integer, String>();
+        pruned = new HashMap<String, Integer>();
+        worktree = MAIN_WORKTREE;
+        dir = ".gitlet";
+        add = new HashMap<String, String>();
         remove = new HashSet<String>();
         nextID = 1;
 
         Commit initial = new Commit(0, "initial commit");
-        commits.put(0, initial);
-
-        HashSet<Commit> hs = new HashSet<Commit>();
-        hs.add(initial);
-        messages.put("initial commit", hs);
+        recordCommit(initial);
 
         Branch master = new Branch("master", initial);
         branches.put("master", master);
         current = master;
+        worktrees.put(MAIN_WORKTREE, new WorktreeState(null, "master"));
+        reachable(initial);
     }
 
     /**
-     * Stages the file to be included in the next Commit,
-     * only if the file exists and has been changed since
-     * the last Commit. If the file has been previously marked
-     * for removal, only unmarks it and does not stage it.
+     * Reads the History with the given stream, selecting the working tree
+     * containing the .gitlet directory.
      */
-    public void add(String filename) {
-        if (remove.contains(filename)) {
-            remove.remove(filename);
-            return;
-        }
+    private void readObject(ObjectInputStream stream)
+        throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        selectWorktree(MAIN_WORKTREE, ".gitlet");
+    }
 
-        byte[] newFile;
-        try {
-            newFile = Files.readAllBytes(Paths.get(filename));
-        } catch (IOException e) {
-            System.out.println("File does not exist.");
-            return;
+    /**
+     * Writes the History with the given stream, after saving the state of
+     * the selected working tree.
+     */
+    private void writeObject(ObjectOutputStream stream) throws IOException {
+        worktrees.get(worktree).update(current.getName(), add, remove, statCache,
+            watchToken, snapshot);
+        stream.defaultWriteObject();
+    }
+
+    /**
+     * Selects the working tree with the given name, of the repository whose
+     * .gitlet directory is at the given path, so that the current Branch,
+     * staged files and cached file information are its own. Returns false
+     * if there is no such working tree.
+     */
+    public boolean selectWorktree(String name, String dir) {
+        WorktreeState state = worktrees.get(name);
+        if (state == null) {
+            return false;
         }
-        HashSet<String> files = new HashSet<String>(current.getHead().fileSet());
-        if (files.contains(filename)) {
-            int id = current.getHead().getFileCommit(filename);
-            String path = ".gitlet/" + id + "/" + filename;
-            try {
-                byte[] oldFile = Files.readAllBytes(Paths.get(path));
-                if (oldFile.length == newFile.length) {
-                    boolean changed = false;
-                    for (int i = 0; i < oldFile.length; i++) {
-                        if (oldFile[i] != newFile[i]) {
-                            changed = true;
-                        }
+        worktree = name;
+        this.dir = dir;
+        current = branches.get(state.getBranch());
+        add = state.getAdd();
+        remove = state.getRemove();
+        statCache = state.getStatCache();
+        watchToken = state.getWatchToken();
+        snapshot = state.getSnapshot();
+        return true;
+    }
+
+    /**
+     * Returns the path of the .gitlet directory of the repository.
+     */
+    public String getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Stages the files with the given names to be included in the next
+     * Commit, only if they exist and have been changed since the last
+     * Commit. A name may be a file, a directory, whose files are all
+     * considered except those ignored by the .gitletignore file, or a
+     * glob such as "src/**.java" matched against the files of the working
+     * directory. Directories and globs only find files in the sparse
+     * checkout, but a file named explicitly is always considered. If a
+     * file has been previously marked for removal, only unmarks it and
+     * does not stage it. The candidate files are compared with their
+     * committed copies in parallel, and the contents of the changed ones
+     * are copied to the staging area and hashed right away, so that
+     * later edits are not committed unless added again. A file which
+     * cannot be copied keeps whatever was staged for it before.
+     */
+    public void add(List<String> names) {
+        LinkedHashSet<String> candidates = new LinkedHashSet<String>();
+        HashSet<String> explicit = new HashSet<String>();
+        HashMap<String, long[]> working = null;
+        for (String name : names) {
+            String path = WorkingTree.relative(Paths.get(name));
+            if (remove.contains(path)) {
+                remove.remove(path);
+            } else if (new File(name).isDirectory()) {
+                for (String file : new TreeSet<String>(WorkingTree.scan(path).keySet())) {
+                    if (inSparse(file)) {
+                        candidates.add(file);
                     }
-                    if (!changed) {
-                        System.out.println("File has not been modified since the last commit.");
-                        return;
+                }
+            } else if (name.contains("*") || name.contains("?") || name.contains("[")) {
+                if (working == null) {
+                    working = scanWorkingTree();
+                }
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                boolean matched = false;
+                for (String file : new TreeSet<String>(working.keySet())) {
+                    if (matcher.matches(Paths.get(file))) {
+                        candidates.add(file);
+                        matched = true;
                     }
                 }
+                if (!matched) {
+                    System.out.println("No files match " + name + ".");
+                }
+            } else if (new File(name).isFile()) {
+                candidates.add(path);
+                explicit.add(path);
+            } else {
+                System.out.println("File does not exist.");
+            }
+        }
+
+        Commit head = current.getHead();
+        ConcurrentHashMap<String, String> staged = new ConcurrentHashMap<String, String>();
+        Set<String> failed = ConcurrentHashMap.newKeySet();
+        candidates.parallelStream().forEach(file -> {
+            int id = -1;
+            if (head.fileSet().contains(file)) {
+                id = head.getFileCommit(file);
+                long[] stat = WorkingTree.stat(file);
+                long[] cached = statCache.get(file);
+                if (stat != null && cached != null && cached[0] == stat[0]
+                    && cached[1] == stat[1] && cached[2] == id) {
+                    return;
+                }
+            }
+            File copy = new File(stateDir() + "/staging.tmp/" + file);
+            String hash = WorkingTree.copyAndHash(new File(file), copy);
+            if (hash == null) {
+                copy.delete();
+                failed.add(file);
+                System.out.println("Could not stage " + file);
+                return;
+            }
+            if (id >= 0) {
+                String committed = blobHash(id, file);
+                if (committed == null
+                    ? WorkingTree.sameContent(copy, blobFile(id, file))
+                    : committed.equals(hash)) {
+                    copy.delete();
+                    return;
+                }
+            }
+            try {
+                stagedFile(file).getParentFile().mkdirs();
+                Files.move(copy.toPath(), stagedFile(file).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
             } catch (IOException e) {
-                System.out.println("Previous version of file not found.");
+                copy.delete();
+                failed.add(file);
+                System.out.println("Could not stage " + file);
+                return;
+            }
+            staged.put(file, hash);
+        });
+
+        for (String file : candidates) {
+            if (failed.contains(file)) {
+                continue;
+            } else if (staged.containsKey(file)) {
+                add.put(file, staged.get(file));
+            } else {
+                add.remove(file);
+                stagedFile(file).delete();
+                if (explicit.contains(file)) {
+                    System.out.println("File has not been modified since the last commit.");
+                }
             }
         }
-        add.add(filename);
     }
 
     /**
      * Creates a new Commit reflecting any files which have been added
      * or removed, only if such files exist, and adds it to the Commit tree.
-     * Also, it creates copies of newly added files.
+     * The copies of the added files made by add are moved into place,
+     * so no file contents are copied.
      */
     public void commit(String message) {
         if (add.isEmpty() && remove.isEmpty()) {
             System.out.println("No changes added to the commit.");
             return;
         }
-        HashMap<String, Integer> files = new HashMap<String, Integer>();
         Commit prevCommit = current.getHead();
-        for (String filename : prevCommit.fileSet()) {
-            files.put(filename, prevCommit.getFileCommit(filename));
-        }
+        HashMap<String, Integer> files = prevCommit.fileMap();
         for (String filename : remove) {
             files.remove(filename);
         }
 
-        if (!add.isEmpty()) {
-            File fldr = new File(".gitlet/" + nextID);
-            fldr.mkdir();
-        }
-        for (String filename : add) {
-            File source = new File(filename);
-            File target = new File(".gitlet/" + nextID + "/" + filename);
-            if (makeCopy(source, target)) {
+        HashMap<String, String> hashes = new HashMap<String, String>();
+        for (String filename : add.keySet()) {
+            File target = blobFile(dir, nextID, filename);
+            target.getParentFile().mkdirs();
+            try {
+                Files.move(stagedFile(filename).toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
                 files.put(filename, nextID);
+                hashes.put(filename, add.get(filename));
+            } catch (IOException e) {
+                System.out.println("Could not find the staged copy of " + filename);
             }
         }
-        Commit newCommit = new Commit(nextID, message, prevCommit, files);
+        Commit newCommit = new Commit(nextID, message, prevCommit, files, hashes);
         current.setHead(newCommit);
-        commits.put(nextID, newCommit);
-
-        if (messages.containsKey(message)) {
-            messages.get(message).add(newCommit);
-        } else {
-            HashSet<Commit> hs = new HashSet<Commit>();
-            hs.add(newCommit);
-            messages.put(message, hs);
-        }
+        recordCommit(newCommit);
+        reachable(newCommit);
 
         nextID += 1;
         add.clear();
@@ -149,8 +344,9 @@ public class History implements Serializable {
      */
     public void remove(String filename) {
         HashSet<String> files = new HashSet<String>(current.getHead().fileSet());
-        if (add.contains(filename)) {
+        if (add.containsKey(filename)) {
             add.remove(filename);
+            stagedFile(filename).delete();
         } else if (files.contains(filename)) {
             remove.add(filename);
         } else {
@@ -162,57 +358,264 @@ public class History implements Serializable {
      * Prints the history starting from the current Commit to the initial Commit.
      */
     public void log() {
+        PrintWriter out = output();
+        Commit curr = current.getHead();
+        while (curr != null) {
+            printCommit(out, curr);
+            curr = curr.getPrevious();
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints the history starting from the current Commit to the initial
+     * Commit, including only the Commits which changed the given file or
+     * any file in the given directory. Files are looked up in the path
+     * index, so only the part of the history back to the oldest such
+     * Commit is walked. Directories are found by walking the whole
+     * history, skipping the Commits whose changed path filter rules
+     * out the directory. The path is normalized the same way as the
+     * paths in the filters, so "./dir/" is the same as "dir", and "."
+     * is the whole working directory.
+     */
+    public void log(String path) {
+        path = ChangedPathFilter.normalize(path);
+        if (!paths.contains(path)) {
+            logDirectory(path);
+            return;
+        }
+
+        int[] ids = paths.commits(path);
+        CommitBitmap history = reachable(current.getHead());
+        PrintWriter out = output();
+        for (int i = ids.length - 1; i >= 0; i--) {
+            if (history.contains(ids[i])) {
+                printCommit(out, commits.get(ids[i]));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints the Commits in the given range "A..B", which are the
+     * Commits reachable from B but not from A, where A and B are each
+     * either a Branch name or a Commit ID. If count is true, only
+     * prints the number of such Commits. Returns false, without
+     * printing anything, if the given String is not such a range.
+     */
+    public boolean logRange(String range, boolean count) {
+        int dots = range.indexOf("..");
+        if (dots < 0) {
+            return false;
+        }
+        CommitBitmap ids = range(range.substring(0, dots), range.substring(dots + 2));
+        if (ids == null) {
+            return false;
+        }
+
+        if (count) {
+            System.out.println(ids.cardinality());
+        } else {
+            PrintWriter out = output();
+            int[] sorted = ids.toArray();
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                printCommit(out, commits.get(sorted[i]));
+            }
+            out.flush();
+        }
+        return true;
+    }
+
+    /**
+     * Prints the history starting from the current Commit to the initial
+     * Commit, including only the Commits which changed a file in the
+     * given normalized directory, or any file if it is empty.
+     */
+    private void logDirectory(String dir) {
+        String prefix = dir.isEmpty() ? "" : dir + "/";
+        boolean found = false;
+        PrintWriter out = output();
         Commit curr = current.getHead();
         while (curr != null) {
-            Date date = curr.getDate();
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
-            System.out.println("====");
-            System.out.println("Commit " + curr.getID() + ".");
-            System.out.println(dateFormat.format(date));
-            System.out.println(curr.getMessage());
-            System.out.println();
+            if (dir.isEmpty() || curr.mayHaveChanged(dir)) {
+                for (String file : curr.changedPaths()) {
+                    if (file.startsWith(prefix)) {
+                        printCommit(out, curr);
+                        found = true;
+                        break;
+                    }
+                }
+            }
             curr = curr.getPrevious();
         }
+        out.flush();
+        if (!found) {
+            System.out.println("No commit has changed that file.");
+        }
+    }
+
+    /**
+     * Prints the ID, time and message of the given Commit to the given
+     * PrintWriter.
+     */
+    private static void printCommit(PrintWriter out, Commit commit) {
+        out.println("====");
+        out.println("Commit " + commit.getID() + ".");
+        out.println(DATE_FORMAT.format(commit.getDate().toInstant()));
+        out.println(commit.getMessage());
+        out.println();
+    }
+
+    /**
+     * Returns a buffered PrintWriter over System.out, which must be
+     * flushed once printing is done.
+     */
+    private static PrintWriter output() {
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16));
     }
 
     /**
-     * Prints the history of all Commits.
+     * Prints the history of all Commits, from the most recent to the
+     * least recent.
      */
     public void globalLog() {
-        for (Integer commitID : commits.keySet()) {
-            Commit commit = commits.get(commitID);
-            Date date = commit.getDate();
-            DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+        globalLog(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Prints the history of all Commits made between the given times,
+     * in milliseconds and inclusive, from the most recent to the least
+     * recent, using the time index. Only Commits older than the given
+     * cursor are printed, if it is not null. At most limit Commits are
+     * printed; if there are more, a cursor from which to continue is
+     * printed after them.
+     */
+    public void globalLog(long since, long until, int limit, String cursor) {
+        int end = times.position(until, Integer.MAX_VALUE);
+        if (cursor != null) {
+            int dot = cursor.indexOf('.');
+            try {
+                long time = Long.parseLong(cursor.substring(0, dot));
+                int id = Integer.parseInt(cursor.substring(dot + 1));
+                end = Math.min(end, times.position(time, id));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                System.out.println("Invalid cursor.");
+                return;
+            }
+        }
+        int start = times.position(since, Integer.MIN_VALUE);
 
-            System.out.println("====");
-            System.out.println("Commit " + commitID + ".");
-            System.out.println(dateFormat.format(date));
-            System.out.println(commit.getMessage());
-            System.out.println();
+        PrintWriter out = output();
+        int printed = 0;
+        int pos = end - 1;
+        while (pos >= start && printed < limit) {
+            printCommit(out, commits.get(times.getID(pos)));
+            printed += 1;
+            pos -= 1;
         }
+        if (pos >= start) {
+            out.println("Cursor: " + times.getTime(pos + 1) + "." + times.getID(pos + 1));
+        }
+        out.flush();
     }
 
     /**
      * Prints the IDs of all Commits with the given message,
-     * if such Commits exist.
+     * if such Commits exist. The message index narrows down the
+     * candidates, whose messages are then compared.
      */
     public void find(String message) {
-        HashSet<Commit> results = messages.get(message);
-        if (results == null) {
+        boolean found = false;
+        for (int id : allIfNull(index.all(message))) {
+            Commit commit = commits.get(id);
+            if (commit != null && commit.getMessage().equals(message)) {
+                System.out.println(id);
+                found = true;
+            }
+        }
+        if (!found) {
+            System.out.println("Found no commit with that message.");
+        }
+    }
+
+    /**
+     * Prints the IDs of all Commits whose message matches the query
+     * in the given mode, using the message index. The mode "token"
+     * matches whole words, "prefix" matches words starting with the
+     * query, and "contains" matches any part of the message. All modes
+     * ignore case.
+     */
+    public void find(String mode, String query) {
+        int[] results;
+        if (mode.equals("token")) {
+            results = index.token(query);
+        } else if (mode.equals("prefix")) {
+            results = index.prefix(query);
+        } else {
+            results = containing(query);
+        }
+
+        if (results.length == 0) {
             System.out.println("Found no commit with that message.");
         } else {
-            for (Commit commit : results) {
-                System.out.println(commit.getID());
+            for (int id : results) {
+                System.out.println(id);
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs, in increasing order, of all Commits whose message
+     * contains the given text, ignoring case. The message index narrows
+     * down the candidates, whose messages are then checked.
+     */
+    private int[] containing(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        int[] candidates = allIfNull(index.candidates(text));
+
+        int count = 0;
+        int[] results = new int[candidates.length];
+        for (int id : candidates) {
+            Commit commit = commits.get(id);
+            if (commit != null && commit.getMessage().toLowerCase(Locale.ROOT).contains(lower)) {
+                results[count] = id;
+                count += 1;
             }
         }
+        return Arrays.copyOf(results, count);
+    }
+
+    /**
+     * Returns the given IDs found in the message index, or the IDs of
+     * all Commits in increasing order if the index could not narrow
+     * down the search.
+     */
+    private int[] allIfNull(int[] candidates) {
+        if (candidates != null) {
+            return candidates;
+        }
+        int[] all = new int[commits.size()];
+        int i = 0;
+        for (Integer commitID : new TreeSet<Integer>(commits.keySet())) {
+            all[i] = commitID;
+            i += 1;
+        }
+        return all;
     }
 
     /**
-     * Prints the status, including the branches, staged files, and
-     * files marked for removal.
+     * Prints the status, including the branches, staged files, files
+     * marked for removal, tracked files which were modified or deleted
+     * without being staged, and untracked files. The working directory
+     * is scanned in parallel, and a tracked file is only compared with
+     * its committed copy if its size or modification time differs from
+     * the last time it was found unmodified. Staged files are compared
+     * with the hash of their staged copy instead. Tracked files outside
+     * the sparse checkout are only reported if they are still there.
+     * Returns true if the cached file information changed, so that the
+     * History only needs to be saved then.
      */
-    public void status() {
+    public boolean status() {
         System.out.println("=== Branches ===");
         for (String branch : branches.keySet()) {
             if (branch.equals(current.getName())) {
@@ -223,7 +626,7 @@ public class History implements Serializable {
         }
 
         System.out.println("\n=== Staged Files ===");
-        for (String staged : add) {
+        for (String staged : new TreeSet<String>(add.keySet())) {
             System.out.println(staged);
         }
 
@@ -231,13 +634,309 @@ public class History implements Serializable {
         for (String marked : remove) {
             System.out.println(marked);
         }
+
+        long scanStart = System.currentTimeMillis();
+        String oldToken = watchToken;
+        boolean hadSnapshot = snapshot != null;
+        HashMap<String, long[]> working = scanWorkingTree();
+        boolean cacheChanged = !Objects.equals(oldToken, watchToken)
+            || hadSnapshot != (snapshot != null);
+        Commit head = current.getHead();
+        ArrayList<String> suspicious = new ArrayList<String>();
+        TreeSet<String> changed = new TreeSet<String>();
+        for (String file : head.fileSet()) {
+            if (add.containsKey(file) || remove.contains(file)) {
+                continue;
+            }
+            long[] stat = working.get(file);
+            if (stat == null && (stat = WorkingTree.stat(file)) != null) {
+                working.put(file, stat);
+            }
+            long[] cached = statCache.get(file);
+            if (stat == null && !inSparse(file)) {
+                continue;
+            } else if (stat == null) {
+                changed.add(file + " (deleted)");
+            } else if (cached == null || cached[0] != stat[0] || cached[1] != stat[1]
+                || cached[2] != head.getFileCommit(file)) {
+                suspicious.add(file);
+            }
+        }
+
+        ConcurrentHashMap<String, long[]> clean = new ConcurrentHashMap<String, long[]>();
+        suspicious.parallelStream().forEach(file -> {
+            int id = head.getFileCommit(file);
+            if (WorkingTree.sameContent(new File(file), blobFile(id, file))) {
+                long[] stat = working.get(file);
+                clean.put(file, new long[] {stat[0], stat[1], id});
+            }
+        });
+        for (String file : suspicious) {
+            if (!clean.containsKey(file)) {
+                changed.add(file + " (modified)");
+            } else if (clean.get(file)[1] < scanStart - RACY_MILLIS) {
+                statCache.put(file, clean.get(file));
+                cacheChanged = true;
+            }
+        }
+        cacheChanged |= statCache.keySet().retainAll(head.fileSet());
+        Set<String> restaged = ConcurrentHashMap.newKeySet();
+        add.keySet().parallelStream().forEach(file -> {
+            File copy = new File(file);
+            if (!copy.isFile()) {
+                restaged.add(file + " (deleted)");
+            } else if (!add.get(file).equals(WorkingTree.hash(copy))) {
+                restaged.add(file + " (modified)");
+            }
+        });
+        changed.addAll(restaged);
+
+        System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (String file : changed) {
+            System.out.println(file);
+        }
+
+        System.out.println("\n=== Untracked Files ===");
+        for (String file : new TreeSet<String>(working.keySet())) {
+            if (!head.fileSet().contains(file) && !add.containsKey(file)) {
+                System.out.println(file);
+            }
+        }
         System.out.println();
+        return cacheChanged;
+    }
+
+    /**
+     * Returns a HashMap mapping the path of every file in the working
+     * directory to its size and last modified time in milliseconds. If
+     * a watcher is running and has journaled every change since the last
+     * scan, only the changed paths are looked at. Otherwise the whole
+     * working directory is scanned.
+     */
+    private HashMap<String, long[]> scanWorkingTree() {
+        String token = Watcher.token();
+        HashSet<String> changed = Watcher.changedSince(watchToken);
+        HashMap<String, long[]> working;
+        if (changed == null || snapshot == null || changed.contains(IgnoreRules.FILE)) {
+            working = scanSparse();
+        } else {
+            IgnoreRules ignore = IgnoreRules.load();
+            for (String path : changed) {
+                if (ignore.isIgnored(path)) {
+                    continue;
+                }
+                snapshot.remove(path);
+                snapshot.subMap(path + "/", path + "0").clear();
+                long[] stat = WorkingTree.stat(path);
+                if (stat != null) {
+                    snapshot.put(path, stat);
+                } else if (new File(path).isDirectory()) {
+                    snapshot.putAll(WorkingTree.scan(path));
+                }
+            }
+            working = new HashMap<String, long[]>(snapshot);
+            working.keySet().removeIf(file -> !inSparse(file));
+        }
+
+        watchToken = token;
+        snapshot = null;
+        if (token != null) {
+            snapshot = new TreeMap<String, long[]>(working);
+        }
+        return working;
+    }
+
+    /**
+     * Returns a HashMap mapping the path of every file in the working
+     * directory which is in the sparse checkout to its size and last
+     * modified time, only scanning the directories it includes.
+     */
+    private HashMap<String, long[]> scanSparse() {
+        if (sparse == null) {
+            return WorkingTree.scan("");
+        }
+        HashMap<String, long[]> working = new HashMap<String, long[]>();
+        for (String prefix : sparse) {
+            long[] stat = WorkingTree.stat(prefix);
+            if (stat != null) {
+                working.put(prefix, stat);
+            } else {
+                working.putAll(WorkingTree.scan(prefix));
+            }
+        }
+        return working;
+    }
+
+    /**
+     * Prints a unified diff of the changes in the working directory which
+     * are not staged, comparing each tracked file with its staged copy,
+     * or else its copy in the current head. Files whose size and
+     * modification time are the same as when status last found them
+     * unmodified are skipped without being read.
+     */
+    public void diff() {
+        Commit head = current.getHead();
+        TreeSet<String> files = new TreeSet<String>(head.fileSet());
+        files.addAll(add.keySet());
+        files.removeAll(remove);
+        PrintWriter out = output();
+        for (String file : files) {
+            File before;
+            if (!inSparse(file) && !add.containsKey(file) && !new File(file).exists()) {
+                continue;
+            } else if (add.containsKey(file)) {
+                before = stagedFile(file);
+            } else {
+                int id = head.getFileCommit(file);
+                long[] cached = statCache.get(file);
+                long[] stat = WorkingTree.stat(file);
+                if (cached != null && stat != null && cached[0] == stat[0]
+                    && cached[1] == stat[1] && cached[2] == id) {
+                    continue;
+                }
+                before = blobFile(id, file);
+            }
+            Diff.write(out, file, before, workingFile(file));
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints a unified diff of the changes which are staged for the next
+     * Commit, comparing the staged copy of each file with its copy in
+     * the current head.
+     */
+    public void diffStaged() {
+        Commit head = current.getHead();
+        TreeSet<String> files = new TreeSet<String>(add.keySet());
+        files.addAll(remove);
+        PrintWriter out = output();
+        for (String file : files) {
+            File before = null;
+            if (head.fileSet().contains(file)) {
+                before = blobFile(head.getFileCommit(file), file);
+            }
+            File after = add.containsKey(file) ? stagedFile(file) : null;
+            Diff.write(out, file, before, after);
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints a unified diff from the Commit named by from to the Commit
+     * named by to, where each name is either a Branch name or a Commit ID.
+     * If to is null, diffs against the working directory instead, using
+     * the files tracked by either Commit or staged. Files stored by the
+     * same Commit on both sides are skipped without being read. Returns
+     * false if either name does not refer to a Commit.
+     */
+    public boolean diff(String from, String to) {
+        Commit first = resolve(from);
+        Commit second = (to == null) ? null : resolve(to);
+        if (first == null || (to != null && second == null)) {
+            return false;
+        }
+        TreeSet<String> files = new TreeSet<String>(first.fileSet());
+        if (second != null) {
+            files.addAll(second.fileSet());
+        } else {
+            files.addAll(current.getHead().fileSet());
+            files.addAll(add.keySet());
+        }
+
+        PrintWriter out = output();
+        for (String file : files) {
+            int a = first.fileSet().contains(file) ? first.getFileCommit(file) : -1;
+            File before = (a < 0) ? null : blobFile(a, file);
+            File after;
+            if (second == null && !inSparse(file) && !add.containsKey(file)) {
+                continue;
+            } else if (second == null) {
+                after = workingFile(file);
+            } else {
+                int b = second.fileSet().contains(file) ? second.getFileCommit(file) : -1;
+                if (a == b) {
+                    continue;
+                }
+                after = (b < 0) ? null : blobFile(b, file);
+            }
+            Diff.write(out, file, before, after);
+        }
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Returns the given file in the working directory, or null if there
+     * is no such file.
+     */
+    private File workingFile(String file) {
+        File result = new File(file);
+        return result.isFile() ? result : null;
+    }
+
+    /**
+     * Writes the files of the Commit named by the given Branch name or
+     * Commit ID to a tar archive, or a zip archive if zip is true, at the
+     * given path, or to System.out if the path is "-". Files are read
+     * straight from where they are stored, in sorted order, and the
+     * working directory is left untouched. Problems are reported on
+     * System.err when the archive goes to System.out. Returns false if
+     * the name does not refer to a Commit.
+     */
+    public boolean archive(String name, String target, boolean zip) {
+        Commit commit = resolve(name);
+        if (commit == null) {
+            return false;
+        }
+        boolean toStdout = target.equals("-");
+        PrintStream errors = toStdout ? System.err : System.out;
+        TreeMap<String, File> files = new TreeMap<String, File>();
+        for (String file : commit.fileSet()) {
+            File source = blobFile(commit.getFileCommit(file), file);
+            if (!source.isFile()) {
+                errors.println("The stored copy of " + file + " is missing.");
+                return true;
+            }
+            files.put(file, source);
+        }
+
+        long time = commit.getDate().getTime();
+        if (toStdout) {
+            try {
+                writeArchive(new BufferedOutputStream(System.out, 1 << 16), zip, files, time);
+            } catch (IOException e) {
+                errors.println("Could not write the archive: " + e.getMessage());
+            }
+            return true;
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(target), 1 << 16)) {
+            writeArchive(out, zip, files, time);
+        } catch (IOException e) {
+            new File(target).delete();
+            errors.println("Could not write the archive: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Writes the given files to an Archive over the given stream, each
+     * under its path and with the given modification time, then flushes
+     * the stream without closing it.
+     */
+    private static void writeArchive(OutputStream out, boolean zip, TreeMap<String, File> files,
+        long time) throws IOException {
+        Archive archive = new Archive(out, zip);
+        for (Map.Entry<String, File> entry : files.entrySet()) {
+            archive.add(entry.getKey(), entry.getValue(), time);
+        }
+        archive.finish();
     }
 
     /**
-     * Either switches to the branch with the given name and copies
-     * all of its files, or attempts to restore the file with the
-     * given name from the last Commit, if it exists.
+     * Either switches to the branch with the given name and copies all
+     * of its files in the sparse checkout, or attempts to restore the
+     * file with the given name from the last Commit, if it exists.
      */
     public void checkout(String name) {
         if (branches.containsKey(name)) {
@@ -245,13 +944,18 @@ public class History implements Serializable {
                 System.out.println("No need to checkout the current branch.");
                 return;
             }
+            if (checkedOutElsewhere(name)) {
+                System.out.println("That branch is checked out in another working tree.");
+                return;
+            }
             if (dangerousOK()) {
                 current = branches.get(name);
                 Commit curr = current.getHead();
                 HashSet<String> files = new HashSet<String>(curr.fileSet());
+                files.removeIf(file -> !inSparse(file));
                 for (String file : files) {
                     int id = curr.getFileCommit(file);
-                    File source = new File(".gitlet/" + id + "/" + file);
+                    File source = blobFile(id, file);
                     File target = new File(file);
                     makeCopy(source, target);
                 }
@@ -264,7 +968,7 @@ public class History implements Serializable {
         if (files.contains(name)) {
             if (dangerousOK()) {
                 int id = curr.getFileCommit(name);
-                File source = new File(".gitlet/" + id + "/" + name);
+                File source = blobFile(id, name);
                 File target = new File(name);
                 makeCopy(source, target);
             }
@@ -292,7 +996,7 @@ public class History implements Serializable {
         }
 
         if (dangerousOK()) {
-            File source = new File(".gitlet/" + id + "/" + file);
+            File source = blobFile(curr.getFileCommit(file), file);
             File target = new File(file);
             makeCopy(source, target);
         }
@@ -310,6 +1014,22 @@ public class History implements Serializable {
         }
     }
 
+    /**
+     * Prints the names of all Branches whose history contains the Commit
+     * with the given ID, if it exists.
+     */
+    public void branchesContaining(Integer id) {
+        if (!commits.containsKey(id)) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+        for (Branch branch : branches.values()) {
+            if (reachable(branch.getHead()).contains(id)) {
+                System.out.println(branch.getName());
+            }
+        }
+    }
+
     /**
      * Removes the Branch with the given name if it exists and is not the current branch.
      */
@@ -318,102 +1038,725 @@ public class History implements Serializable {
             System.out.println("A branch with that name does not exist.");
         } else if (name.equals(current.getName())) {
             System.out.println("Cannot remove the current branch.");
+        } else if (checkedOutElsewhere(name)) {
+            System.out.println("Cannot remove a branch checked out in another working tree.");
         } else {
             branches.remove(name);
         }
     }
 
     /**
-     * Revents the files and the current Commit to the Commit with
-     * the given ID, if one exists.
+     * Returns true if the Branch with the given name is the current branch
+     * of a working tree other than the selected one.
      */
-    public void reset(Integer id) {
-        if (!commits.containsKey(id)) {
-            System.out.println("No commit with that id exists.");
-            return;
-        }
-
-        if (dangerousOK()) {
-            Commit curr = commits.get(id);
-            for (String file : curr.fileSet()) {
-                int commitID = curr.getFileCommit(file);
-                File source = new File(".gitlet/" + commitID + "/" + file);
-                File target = new File(file);
-                makeCopy(source, target);
+    private boolean checkedOutElsewhere(String name) {
+        for (String other : worktrees.keySet()) {
+            if (!other.equals(worktree) && worktrees.get(other).getBranch().equals(name)) {
+                return true;
             }
-            current.setHead(curr);
         }
+        return false;
     }
 
     /**
-     * Copies files from the Branch with the given name, if it exists
-     * and is not the current branch. Only copies files which have
-     * changed in the given Branch from the splitting point. If the
-     * file has also changed in the current branch, .conflicted is
-     * appened to the end of the filename.
+     * Adds a working tree in the directory with the given path, which must
+     * not exist or be empty, with the Branch with the given name as its
+     * current branch, and copies the files of that Branch to it. The new
+     * working tree gets a .gitlet file pointing at this .gitlet directory,
+     * and its own staging directory inside it. A Branch can only be the
+     * current branch of one working tree. Returns true if it was added.
      */
-    public void merge(String name) {
+    public boolean addWorktree(String path, String name) {
         if (!branches.containsKey(name)) {
             System.out.println("A branch with that name does not exist.");
-            return;
+            return false;
         }
-        if (name.equals(current.getName())) {
-            System.out.println("Cannot merge a branch with itself.");
-            return;
+        if (name.equals(current.getName()) || checkedOutElsewhere(name)) {
+            System.out.println("That branch is already checked out in a working tree.");
+            return false;
         }
+        Path top = Paths.get(path).toAbsolutePath().normalize();
+        String[] entries = top.toFile().list();
+        if (Files.exists(top) && (entries == null || entries.length > 0)) {
+            System.out.println("That directory already exists.");
+            return false;
+        }
+        String base = (top.getFileName() == null) ? "worktree" : top.getFileName().toString();
+        String id = base;
+        for (int i = 2; worktrees.containsKey(id); i++) {
+            id = base + i;
+        }
+        try {
+            Files.createDirectories(top);
+            String gitdir = Paths.get(dir).toAbsolutePath().normalize().toString();
+            Files.write(top.resolve(".gitlet"), Arrays.asList(gitdir, id),
+                StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Could not create the working tree: " + e.getMessage());
+            return false;
+        }
+        worktrees.put(id, new WorktreeState(top.toString(), name));
+        Commit head = branches.get(name).getHead();
+        head.fileSet().parallelStream().filter(this::inSparse).forEach(file ->
+            makeCopy(blobFile(head.getFileCommit(file), file), top.resolve(file).toFile()));
+        return true;
+    }
 
-        Commit split = findSplit(current.getHead(), branches.get(name).getHead());
-        Commit other = branches.get(name).getHead();
-        Commit curr = current.getHead();
-        if (dangerousOK()) {
-            for (String file : other.fileSet()) {
-                HashSet<String> splitFiles = new HashSet<String>(split.fileSet());
-                HashSet<String> otherFiles = new HashSet<String>(other.fileSet());
-                HashSet<String> currFiles = new HashSet<String>(curr.fileSet());
-                int currCompSplit = 0;
-                int otherCompSplit = 0;
-                if (splitFiles.contains(file)) {
-                    Commit splitFC = commits.get(split.getFileCommit(file));
-                    otherCompSplit = commits.get(other.getFileCommit(file)).compareTo(splitFC);
-                    if (currFiles.contains(file)) {
-                        currCompSplit = commits.get(curr.getFileCommit(file)).compareTo(splitFC);
-                    }
-                }
-
-                boolean otherAdded = (!splitFiles.contains(file) || otherCompSplit > 0);
-                if (otherAdded) {
-                    boolean conflict = (splitFiles.contains(file) && currFiles.contains(file)
-                        && currCompSplit > 0);
-                    conflict = (conflict
-                        || (!splitFiles.contains(file) && currFiles.contains(file)));
-                    boolean currNotAdded = (splitFiles.contains(file) && currFiles.contains(file)
-                        && currCompSplit == 0);
-                    currNotAdded = (currNotAdded || !currFiles.contains(file));
-                    if (conflict) {
-                        File source = new File(".gitlet/" + other.getFileCommit(file)
-                            + "/" + file);
-                        File target = new File(file + ".conflicted");
-                        makeCopy(source, target);
-                    } else if (currNotAdded) {
-                        File source = new File(".gitlet/" + other.getFileCommit(file)
-                            + "/" + file);
-                        File target = new File(file);
-                        makeCopy(source, target);
-                    }
+    /**
+     * Forgets the working tree in the directory with the given path, if it
+     * is not the selected one or the one containing the .gitlet directory,
+     * along with its staged files. Its files are left alone, apart from
+     * its .gitlet file. Returns true if it was removed.
+     */
+    public boolean removeWorktree(String path) {
+        String top = Paths.get(path).toAbsolutePath().normalize().toString();
+        for (String name : worktrees.keySet()) {
+            if (top.equals(worktrees.get(name).getPath())) {
+                if (name.equals(worktree)) {
+                    System.out.println("Cannot remove the current working tree.");
+                    return false;
                 }
+                worktrees.remove(name);
+                new File(top, ".gitlet").delete();
+                deleteDirectory(new File(dir + "/worktrees/" + name));
+                return true;
             }
         }
+        System.out.println("No working tree in that directory.");
+        return false;
     }
 
     /**
-     * Recreates all the commits of the current Branch from the split
-     * point onwards onto the given Branch, if it exists. Finally, it
-     * moves the head of the current Branch to the last newly created
-     * Commit. If the head of the current Branch is in the history of
-     * the given Branch, simply moves the head of the current Branch
-     * to the head of the given Branch.
+     * Prints the directory and current branch of each working tree,
+     * starting with the one containing the .gitlet directory.
      */
-    public void rebase(String name) {
+    public void listWorktrees() {
+        Path main = Paths.get(dir).toAbsolutePath().normalize().getParent();
+        System.out.println(main + " [" + branchOf(MAIN_WORKTREE) + "]");
+        for (String name : new TreeSet<String>(worktrees.keySet())) {
+            if (!name.equals(MAIN_WORKTREE)) {
+                System.out.println(worktrees.get(name).getPath()
+                    + " [" + branchOf(name) + "]");
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the current branch of the working tree with the
+     * given name.
+     */
+    private String branchOf(String name) {
+        if (name.equals(worktree)) {
+            return current.getName();
+        }
+        return worktrees.get(name).getBranch();
+    }
+
+    /**
+     * Restricts the files copied to the working directory, scanned by
+     * status and found by add to those under the given path prefixes,
+     * which are directories or files relative to the working directory.
+     * Files of the current head under them which are missing are copied
+     * to the working directory, and unmodified files outside them are
+     * deleted, along with directories left empty. Modified files outside
+     * them are kept. Commits still include every file.
+     */
+    public void sparseCheckout(List<String> prefixes) {
+        TreeSet<String> chosen = new TreeSet<String>();
+        for (String prefix : prefixes) {
+            String path = WorkingTree.relative(Paths.get(prefix));
+            if (path.isEmpty() || path.equals(".") || path.startsWith("../")) {
+                System.out.println("Sparse checkout paths must be inside the working directory.");
+                return;
+            }
+            chosen.add(path);
+        }
+        sparse = chosen;
+        snapshot = null;
+        Commit head = current.getHead();
+        Set<String> kept = ConcurrentHashMap.newKeySet();
+        head.fileSet().parallelStream().forEach(file -> {
+            File working = new File(file);
+            File stored = blobFile(head.getFileCommit(file), file);
+            if (inSparse(file)) {
+                if (!working.exists()) {
+                    makeCopy(stored, working);
+                }
+            } else if (working.isFile() && !add.containsKey(file)) {
+                if (WorkingTree.sameContent(working, stored)) {
+                    working.delete();
+                    File parent = working.getParentFile();
+                    while (parent != null && parent.delete()) {
+                        parent = parent.getParentFile();
+                    }
+                } else {
+                    kept.add(file);
+                }
+            }
+        });
+        for (String file : new TreeSet<String>(kept)) {
+            System.out.println("Kept modified " + file);
+        }
+    }
+
+    /**
+     * Turns off the sparse checkout, copying the files of the current
+     * head which are missing to the working directory.
+     */
+    public void disableSparseCheckout() {
+        sparse = null;
+        snapshot = null;
+        Commit head = current.getHead();
+        head.fileSet().parallelStream().filter(file -> !new File(file).exists()).forEach(file ->
+            makeCopy(blobFile(head.getFileCommit(file), file), new File(file)));
+    }
+
+    /**
+     * Prints the path prefixes of the sparse checkout, or nothing if it
+     * is off.
+     */
+    public void listSparseCheckout() {
+        if (sparse != null) {
+            for (String prefix : sparse) {
+                System.out.println(prefix);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given file is in the sparse checkout, because
+     * it or one of its parent directories was chosen, or it is off.
+     */
+    private boolean inSparse(String file) {
+        if (sparse == null || sparse.contains(file)) {
+            return true;
+        }
+        for (int i = file.indexOf('/'); i >= 0; i = file.indexOf('/', i + 1)) {
+            if (sparse.contains(file.substring(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the Commits which cannot be reached from the head of any
+     * Branch, along with their entries in the indexes, and deletes the
+     * directories of stored files which no remaining Commit uses. Commits
+     * made after the given time, in milliseconds, are kept along with
+     * their history, and so are directories modified after it, so recent
+     * work is never lost. A removed Commit whose stored files are still
+     * used keeps its unique ID, as if its files had been copied from
+     * another repository, and only those files of it are kept. The
+     * history of each head is marked in parallel, and directories are
+     * deleted in parallel. Repositories using this one as an alternate
+     * may lose files they need. Prints what was removed.
+     */
+    public void gc(long cutoff) {
+        int[] removed = sweep(cutoff);
+        System.out.println("Removed " + removed[0] + " commits and "
+            + removed[1] + " stored directories.");
+    }
+
+    /**
+     * Removes what gc removes with the given cutoff time, and returns the
+     * number of Commits and of directories of stored files removed.
+     */
+    private int[] sweep(long cutoff) {
+        ArrayList<Commit> roots = new ArrayList<Commit>();
+        for (Branch branch : branches.values()) {
+            roots.add(branch.getHead());
+        }
+        for (Commit commit : commits.values()) {
+            if (commit.getDate().getTime() > cutoff) {
+                roots.add(commit);
+            }
+        }
+        Set<Integer> marked = ConcurrentHashMap.newKeySet();
+        roots.parallelStream().forEach(root -> {
+            Commit commit = root;
+            while (commit != null && marked.add(commit.getID())) {
+                commit = commit.getPrevious();
+            }
+        });
+        Set<Integer> used = ConcurrentHashMap.newKeySet();
+        ConcurrentHashMap<Integer, Set<String>> borrowed =
+            new ConcurrentHashMap<Integer, Set<String>>();
+        marked.parallelStream().forEach(id -> {
+            Commit commit = commits.get(id);
+            for (String file : commit.fileSet()) {
+                int owner = commit.getFileCommit(file);
+                used.add(owner);
+                if (!marked.contains(owner)) {
+                    borrowed.computeIfAbsent(owner, k -> ConcurrentHashMap.newKeySet()).add(file);
+                }
+            }
+        });
+
+        BitSet keep = new BitSet();
+        for (int id : marked) {
+            keep.set(id);
+        }
+        ArrayList<Integer> dead = new ArrayList<Integer>();
+        for (int id : commits.keySet()) {
+            if (!keep.get(id)) {
+                dead.add(id);
+            }
+        }
+        for (int id : dead) {
+            Commit commit = commits.remove(id);
+            if (used.contains(id)) {
+                adopted.put(id, commit.getUID());
+            } else {
+                uids.remove(commit.getUID());
+            }
+            reach.remove(id);
+            grafts.remove(id);
+        }
+        index.retain(keep);
+        paths.retain(keep);
+        times.retain(keep);
+        for (int id : new ArrayList<Integer>(adopted.keySet())) {
+            if (!used.contains(id) && blobFile(dir, id, "").lastModified() <= cutoff) {
+                uids.remove(adopted.remove(id));
+            }
+        }
+
+        File[] stored = new File(dir).listFiles((parent, name) -> name.matches("\\d{1,9}"));
+        ArrayList<File> unused = new ArrayList<File>();
+        for (File directory : (stored == null) ? new File[0] : stored) {
+            int id = Integer.parseInt(directory.getName());
+            if (!used.contains(id) && !commits.containsKey(id) && !adopted.containsKey(id)
+                && directory.lastModified() <= cutoff) {
+                unused.add(directory);
+            }
+        }
+        unused.parallelStream().forEach(History::deleteDirectory);
+        borrowed.keySet().parallelStream().forEach(id -> trimStored(id, borrowed.get(id), cutoff));
+        return new int[] {dead.size(), unused.size()};
+    }
+
+    /**
+     * Deletes the stored files of the Commit with the given ID which are
+     * not among the given files and were not modified after the given
+     * time, along with directories left empty.
+     */
+    private void trimStored(int id, Set<String> keep, long cutoff) {
+        Path root = Paths.get(dir, Integer.toString(id));
+        try (Stream<Path> stored = Files.walk(root)) {
+            Path[] paths = stored.toArray(Path[]::new);
+            for (int i = paths.length - 1; i > 0; i--) {
+                File file = paths[i].toFile();
+                if (file.isDirectory()) {
+                    file.delete();
+                } else if (!keep.contains(WorkingTree.relative(root.relativize(paths[i])))
+                    && file.lastModified() <= cutoff) {
+                    file.delete();
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not clean " + root + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Makes the History shallow, keeping only the last depth Commits of
+     * each of the Branches with the given names, or of every Branch if
+     * none are given, that were made at or after the given time, in
+     * milliseconds. The head of each is always kept. The current branch
+     * and those checked out in other working trees are always included,
+     * and other Branches are removed. Each kept Commit whose previous
+     * Commit is not kept becomes a grafted root, which remembers the
+     * unique ID of its real previous Commit, and the IDs of the removed
+     * Commits are remembered too, so that they can be deepened later.
+     * Everything else is removed as by gc, except the stored files the
+     * kept Commits use.
+     */
+    public void shallow(int depth, long since, List<String> names) {
+        TreeSet<String> chosen = new TreeSet<String>(names);
+        if (chosen.isEmpty()) {
+            chosen.addAll(branches.keySet());
+        }
+        for (String name : chosen) {
+            if (!branches.containsKey(name)) {
+                System.out.println("A branch with that name does not exist.");
+                return;
+            }
+        }
+        chosen.add(current.getName());
+        for (WorktreeState state : worktrees.values()) {
+            chosen.add(state.getBranch());
+        }
+
+        HashSet<Integer> kept = new HashSet<Integer>();
+        for (String name : chosen) {
+            Commit commit = branches.get(name).getHead();
+            int count = 0;
+            do {
+                kept.add(commit.getID());
+                commit = commit.getPrevious();
+                count += 1;
+            } while (commit != null && count < depth && commit.getDate().getTime() >= since);
+        }
+        branches.keySet().retainAll(chosen);
+        for (int id : kept) {
+            Commit commit = commits.get(id);
+            Commit previous = commit.getPrevious();
+            if (previous != null && !kept.contains(previous.getID())) {
+                grafts.put(id, previous.getUID());
+                commit.setPrevious(null);
+            }
+        }
+        for (Commit commit : commits.values()) {
+            if (!kept.contains(commit.getID())) {
+                pruned.put(commit.getUID(), commit.getID());
+            }
+        }
+
+        int[] removed = sweep(Long.MAX_VALUE);
+        reach = new HashMap<Integer, CommitBitmap>();
+        for (String name : chosen) {
+            reachable(branches.get(name).getHead());
+        }
+        System.out.println("Kept " + kept.size() + " commits, removed " + removed[0]
+            + " commits and " + removed[1] + " stored directories.");
+    }
+
+    /**
+     * Deepens a shallow History by copying up to depth Commits behind each
+     * grafted root from the given remote, along with the files they store,
+     * and attaching them. Only Commits which this repository had before it
+     * was made shallow are copied back, since they get their old IDs back,
+     * so every Commit still has a larger ID than its previous Commit.
+     * Returns true if anything was copied.
+     */
+    public boolean deepen(String remote, int depth) {
+        if (grafts.isEmpty()) {
+            System.out.println("This repository is not shallow.");
+            return false;
+        }
+        String dir = remoteDir(remote);
+        if (dir == null) {
+            return false;
+        }
+        History other = Gitlet.readHistory(dir);
+        if (other == null) {
+            return false;
+        }
+        boolean copied = false;
+        for (int root : new TreeSet<Integer>(grafts.keySet())) {
+            if (!grafts.containsKey(root)) {
+                continue;
+            }
+            Integer start = other.uids.get(grafts.get(root));
+            Commit commit = (start == null) ? null : other.commits.get(start);
+            HashSet<String> known = knownCommits();
+            ArrayList<Commit> missing = new ArrayList<Commit>();
+            while (commit != null && missing.size() < depth && !known.contains(commit.getUID())
+                && pruned.containsKey(commit.getUID())) {
+                missing.add(commit);
+                commit = commit.getPrevious();
+            }
+            if (!missing.isEmpty()) {
+                Collections.reverse(missing);
+                if (!transfer(other, this, missing)) {
+                    return copied;
+                }
+                copied = true;
+            }
+        }
+        if (!copied) {
+            System.out.println("That remote has nothing to deepen with.");
+        }
+        return copied;
+    }
+
+    /**
+     * Attaches every grafted root whose real previous Commit is known
+     * again to it.
+     */
+    private void attachGrafts() {
+        for (int id : new ArrayList<Integer>(grafts.keySet())) {
+            Integer previous = uids.get(grafts.get(id));
+            if (previous != null && commits.containsKey(previous)) {
+                Commit commit = commits.get(id);
+                commit.setPrevious(commits.get(previous));
+                paths.add(id, commit.changedPaths());
+                grafts.remove(id);
+                reach.clear();
+            }
+        }
+    }
+
+    /**
+     * Checks the repository and prints every problem found, followed by a
+     * summary. Each Commit must have an older parent and files stored by
+     * known Commits, and each Branch a known head. Every stored file used
+     * by a Commit must exist and, where its hash was recorded, still have
+     * that hash; the files are hashed in parallel by a fixed pool of
+     * workers fed through a bounded queue, each streaming one file at a
+     * time. Stored files without a recorded hash, such as those kept for
+     * removed Commits, are counted as unverified. Stored files in this
+     * repository which no Commit uses are reported as orphaned. Returns
+     * true if no problem was found.
+     */
+    public boolean fsck() {
+        ArrayList<String> problems = new ArrayList<String>();
+        TreeMap<Integer, TreeSet<String>> used = new TreeMap<Integer, TreeSet<String>>();
+        for (Commit commit : new TreeMap<Integer, Commit>(commits).values()) {
+            int id = commit.getID();
+            Commit parent = commit.getPrevious();
+            if (parent != null && commits.get(parent.getID()) != parent) {
+                problems.add("broken commit " + id + ": parent " + parent.getID() + " is missing");
+            } else if (parent != null && parent.getID() >= id) {
+                problems.add("broken commit " + id + ": parent " + parent.getID()
+                    + " is not older");
+            }
+            for (String file : commit.fileSet()) {
+                int owner = commit.getFileCommit(file);
+                if (!commits.containsKey(owner) && !adopted.containsKey(owner)) {
+                    problems.add("broken commit " + id + ": " + file
+                        + " is stored by unknown commit " + owner);
+                    continue;
+                }
+                if (!used.containsKey(owner)) {
+                    used.put(owner, new TreeSet<String>());
+                }
+                used.get(owner).add(file);
+            }
+        }
+        for (String name : new TreeSet<String>(branches.keySet())) {
+            Commit head = branches.get(name).getHead();
+            if (commits.get(head.getID()) != head) {
+                problems.add("broken branch " + name + ": head " + head.getID() + " is missing");
+            }
+        }
+
+        ArrayList<String[]> files = new ArrayList<String[]>();
+        int unverified = 0;
+        for (int id : used.keySet()) {
+            for (String file : used.get(id)) {
+                files.add(new String[] { Integer.toString(id), file });
+                if (blobHash(id, file) == null) {
+                    unverified += 1;
+                }
+            }
+        }
+        String[] found = new String[files.size()];
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(FSCK_WORKERS, FSCK_WORKERS,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(FSCK_QUEUE),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                int index = i;
+                int id = Integer.parseInt(files.get(i)[0]);
+                String file = files.get(i)[1];
+                workers.execute(() -> found[index] = checkStored(id, file));
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            System.out.println("Could not check the stored files: " + e.getMessage());
+            return false;
+        } finally {
+            workers.shutdownNow();
+        }
+        int missing = 0;
+        int corrupt = 0;
+        for (String problem : found) {
+            if (problem != null) {
+                problems.add(problem);
+                if (problem.startsWith("missing")) {
+                    missing += 1;
+                } else {
+                    corrupt += 1;
+                }
+            }
+        }
+
+        ArrayList<String> orphaned = new ArrayList<String>();
+        Path root = Paths.get(dir);
+        try (Stream<Path> stored = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) stored::iterator) {
+                Path relative = root.relativize(path);
+                if (relative.getNameCount() < 2 || !Files.isRegularFile(path)
+                    || !relative.getName(0).toString().matches("\\d{1,9}")) {
+                    continue;
+                }
+                int id = Integer.parseInt(relative.getName(0).toString());
+                String file = WorkingTree.relative(relative.subpath(1, relative.getNameCount()));
+                if (!used.containsKey(id) || !used.get(id).contains(file)) {
+                    orphaned.add("orphaned " + id + "/" + file);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Could not list the stored files: " + e.getMessage());
+            return false;
+        }
+        Collections.sort(orphaned);
+        problems.addAll(orphaned);
+
+        for (String problem : problems) {
+            System.out.println(problem);
+        }
+        System.out.println("Checked " + commits.size() + " commits and " + files.size()
+            + " stored files: " + missing + " missing, " + corrupt + " corrupt, "
+            + unverified + " unverified, " + orphaned.size() + " orphaned.");
+        return problems.isEmpty();
+    }
+
+    /**
+     * Returns a description of what is wrong with the stored copy of the
+     * given file from the Commit with the given ID, or null if it exists
+     * and has its recorded hash, if any.
+     */
+    private String checkStored(int id, String file) {
+        File stored = blobFile(id, file);
+        if (!stored.isFile()) {
+            return "missing " + id + "/" + file;
+        }
+        String hash = WorkingTree.hash(stored);
+        String expected = blobHash(id, file);
+        if (hash == null) {
+            return "corrupt " + id + "/" + file + ": could not be read";
+        } else if (expected != null && !expected.equals(hash)) {
+            return "corrupt " + id + "/" + file + ": hash " + hash + " instead of " + expected;
+        }
+        return null;
+    }
+
+    /**
+     * Revents the files and the current Commit to the Commit with
+     * the given ID, if one exists. Only files in the sparse checkout
+     * are copied.
+     */
+    public void reset(Integer id) {
+        if (!commits.containsKey(id)) {
+            System.out.println("No commit with that id exists.");
+            return;
+        }
+
+        if (dangerousOK()) {
+            Commit curr = commits.get(id);
+            for (String file : curr.fileSet()) {
+                if (!inSparse(file)) {
+                    continue;
+                }
+                int commitID = curr.getFileCommit(file);
+                File source = blobFile(commitID, file);
+                File target = new File(file);
+                makeCopy(source, target);
+            }
+            current.setHead(curr);
+        }
+    }
+
+    /**
+     * Copies files from the Branches with the given names, if they all
+     * exist and none is the current branch. Only copies files which have
+     * changed in a given Branch from its splitting point with the current
+     * branch. If a file has also changed in the current branch or an
+     * earlier given Branch, their changes are merged line by line. The
+     * files to copy and merge are found by a single MergePlan for all the
+     * given Branches, and are then each written once, in parallel.
+     */
+    public void merge(List<String> names) {
+        ArrayList<Commit> splits = new ArrayList<Commit>();
+        ArrayList<Commit> others = new ArrayList<Commit>();
+        Commit curr = current.getHead();
+        for (String name : names) {
+            if (!branches.containsKey(name)) {
+                System.out.println("A branch with that name does not exist.");
+                return;
+            }
+            if (name.equals(current.getName())) {
+                System.out.println("Cannot merge a branch with itself.");
+                return;
+            }
+            Commit other = branches.get(name).getHead();
+            Commit split = findSplit(curr, other);
+            if (split == null) {
+                System.out.println("Cannot merge a branch with no common history.");
+                return;
+            }
+            splits.add(split);
+            others.add(other);
+        }
+
+        if (dangerousOK()) {
+            MergePlan plan = new MergePlan(curr, splits, others, commits);
+            plan.getTaken().parallelStream().forEach(file ->
+                makeCopy(blobFile(plan.getSource(file), file), new File(file)));
+            int conflicts = plan.getConflicted().parallelStream().mapToInt(file ->
+                mergeFile(file, plan, splits, others, names) ? 0 : 1).sum();
+            if (conflicts > 0) {
+                System.out.println("Encountered a merge conflict.");
+            }
+        }
+    }
+
+    /**
+     * Merges the changes made to the given conflicted file by the other
+     * Commits chosen by the MergePlan into the copy it starts from, line
+     * by line and in order, using the copy from each other Commit's
+     * split point (or an empty file if it has none) as the common
+     * ancestor, and writes the result to the working directory. Lines
+     * changed by both sides are written between conflict markers. If
+     * any copy is binary, the first conflicting copy is written to a
+     * .conflicted file instead. The bytes of every line are kept as
+     * they are, whatever their encoding. Returns true if there was no
+     * conflict.
+     */
+    private boolean mergeFile(String file, MergePlan plan, List<Commit> splits,
+        List<Commit> others, List<String> names) {
+        List<String> lines = Diff.readLines(blobFile(plan.getSource(file), file), BYTES);
+        boolean clean = true;
+        for (int i : plan.getMerges(file)) {
+            Commit split = splits.get(i);
+            File theirFile = blobFile(others.get(i).getFileCommit(file), file);
+            List<String> baseLines = new ArrayList<String>();
+            if (split.fileSet().contains(file)) {
+                baseLines = Diff.readLines(blobFile(split.getFileCommit(file), file), BYTES);
+            }
+            List<String> theirLines = Diff.readLines(theirFile, BYTES);
+            if (lines == null || baseLines == null || theirLines == null) {
+                makeCopy(theirFile, new File(file + ".conflicted"));
+                return false;
+            }
+            Merge3 merge = new Merge3(baseLines, lines, theirLines);
+            lines = merge.merge(asBytes(current.getName()), asBytes(names.get(i)));
+            clean = clean && merge.conflicts() == 0;
+        }
+
+        try (Writer out = Files.newBufferedWriter(Paths.get(file), BYTES)) {
+            for (String line : lines) {
+                out.write(line);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write " + file);
+        }
+        return clean;
+    }
+
+    /**
+     * Returns the given text with each byte of its UTF-8 encoding as
+     * one char, to be written among lines read with BYTES.
+     */
+    private static String asBytes(String text) {
+        return new String(text.getBytes(StandardCharsets.UTF_8), BYTES);
+    }
+
+    /**
+     * Recreates all the commits of the current Branch from the split
+     * point onwards onto the given Branch, if it exists. Each Commit is
+     * replayed by applying only the files it changed. Finally, it
+     * moves the head of the current Branch to the last newly created
+     * Commit. If the head of the current Branch is in the history of
+     * the given Branch, simply moves the head of the current Branch
+     * to the head of the given Branch. Only files which differ from the
+     * old head are copied to the working directory.
+     */
+    public void rebase(String name) {
         if (!branches.containsKey(name)) {
             System.out.println("A branch with that name does not exist.");
             return;
@@ -422,174 +1765,870 @@ public class History implements Serializable {
             return;
         }
 
-        Commit split = findSplit(current.getHead(), branches.get(name).getHead());
-        Commit other = branches.get(name).getHead();
-        Commit curr = current.getHead();
-        if (split == other) {
-            System.out.println("Already up-to-date.");
-            return;
+        Commit split = findSplit(current.getHead(), branches.get(name).getHead());
+        Commit other = branches.get(name).getHead();
+        if (split == null) {
+            System.out.println("Cannot rebase onto a branch with no common history.");
+            return;
+        }
+        Commit curr = current.getHead();
+        if (split == other) {
+            System.out.println("Already up-to-date.");
+            return;
+        }
+        if (dangerousOK()) {
+            if (split == curr) {
+                current.setHead(other);
+            } else {
+                Stack<Commit> commitsToRebase = new Stack<Commit>();
+                Commit ptr = curr;
+                while (ptr != split) {
+                    commitsToRebase.push(ptr);
+                    ptr = ptr.getPrevious();
+                }
+                Commit last = other;
+                while (!commitsToRebase.empty()) {
+                    Commit oldCommit = commitsToRebase.pop();
+                    last = replay(last, split, other, oldCommit, oldCommit.changedPaths(),
+                        oldCommit.getMessage());
+                }
+                current.setHead(last);
+            }
+            copyChanged(curr, current.getHead());
+        }
+    }
+
+    /**
+     * Recreates all the commits of the current Branch from the split
+     * point onwards onto the given Branch, if it exists. Interactively
+     * prompts the user whether to skip each Commit (they will be unable
+     * to skip the first and last ones) or whether to change the Commit message.
+     * If the name of a plan file is given instead of null, the answers
+     * are read from it up front and nothing is prompted for.
+     * Finally, it moves the head of the current Branch to the last newly
+     * created Commit. If the head of the current Branch is in the history
+     * of the given Branch, simply moves the head of the current Branch
+     * to the head of the given Branch.
+     */
+    public void iRebase(String name, String planFile) {
+        if (!branches.containsKey(name)) {
+            System.out.println("A branch with that name does not exist.");
+            return;
+        } else if (name.equals(current.getName())) {
+            System.out.println("Cannot rebase a branch onto itself.");
+            return;
+        }
+        Commit split = findSplit(current.getHead(), branches.get(name).getHead());
+        Commit other = branches.get(name).getHead();
+        if (split == null) {
+            System.out.println("Cannot rebase onto a branch with no common history.");
+            return;
+        }
+        Commit curr = current.getHead();
+        if (split == other) {
+            System.out.println("Already up-to-date.");
+            return;
+        }
+        Stack<Commit> commitsToRebase = new Stack<Commit>();
+        Commit ptr = curr;
+        while (ptr != split) {
+            commitsToRebase.push(ptr);
+            ptr = ptr.getPrevious();
+        }
+        HashMap<Integer, String[]> plan = null;
+        if (planFile != null && split != curr) {
+            plan = readPlan(planFile, commitsToRebase, split);
+            if (plan == null) {
+                return;
+            }
+        }
+
+        if (dangerousOK()) {
+            if (split == curr) {
+                current.setHead(other);
+            } else {
+                Commit last = other;
+                LinkedHashSet<String> changed = new LinkedHashSet<String>();
+                while (!commitsToRebase.empty()) {
+                    Commit oldCommit = commitsToRebase.pop();
+                    String response;
+                    String message = oldCommit.getMessage();
+                    if (plan != null) {
+                        response = plan.get(oldCommit.getID())[0];
+                        if (response.equals("m")) {
+                            message = plan.get(oldCommit.getID())[1];
+                        }
+                    } else {
+                        iRebasePrintCommit(oldCommit);
+                        response = iRebasePrompt();
+                        while (response.equals("s")
+                            && (oldCommit.getPrevious() == split || commitsToRebase.empty())) {
+                            response = iRebasePrompt();
+                        }
+                        if (response.equals("m")) {
+                            message = iRebaseCommitMessage();
+                        }
+                    }
+                    changed.addAll(oldCommit.changedPaths());
+                    if (!response.equals("s")) {
+                        last = replay(last, split, other, oldCommit, changed, message);
+                        changed.clear();
+                    }
+                }
+                current.setHead(last);
+            }
+            copyChanged(curr, current.getHead());
+        }
+    }
+
+    /**
+     * Returns the answers for an interactive rebase of the given Commits
+     * read from the given plan file, mapping the ID of each Commit to
+     * "c" to continue with it, "s" to skip it, or "m" followed by its new
+     * message. Each line of the file is "pick", "skip" or "reword"
+     * followed by a Commit ID, and the new message for reword. Blank
+     * lines and lines starting with "#" are ignored. Every Commit must
+     * be listed, and the first and last ones cannot be skipped. Prints
+     * what is wrong and returns null if the plan is invalid.
+     */
+    private HashMap<Integer, String[]> readPlan(String planFile, List<Commit> commitsToRebase,
+        Commit split) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(Paths.get(planFile), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.out.println("Could not read the plan file.");
+            return null;
+        }
+        HashMap<Integer, String[]> plan = new HashMap<Integer, String[]>();
+        for (String line : lines) {
+            String text = line.trim();
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            String[] words = text.split("\\s+", 3);
+            String[] answer;
+            if (words.length == 2 && words[0].equals("pick")) {
+                answer = new String[] {"c"};
+            } else if (words.length == 2 && words[0].equals("skip")) {
+                answer = new String[] {"s"};
+            } else if (words.length == 3 && words[0].equals("reword")) {
+                answer = new String[] {"m", words[2]};
+            } else {
+                System.out.println("Invalid plan line: " + line);
+                return null;
+            }
+            try {
+                plan.put(Integer.parseInt(words[1]), answer);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid plan line: " + line);
+                return null;
+            }
+        }
+
+        HashSet<Integer> ids = new HashSet<Integer>();
+        for (Commit commit : commitsToRebase) {
+            ids.add(commit.getID());
+            if (!plan.containsKey(commit.getID())) {
+                System.out.println("The plan does not list commit " + commit.getID() + ".");
+                return null;
+            }
+            if (plan.get(commit.getID())[0].equals("s")
+                && (commit.getPrevious() == split || commit == current.getHead())) {
+                System.out.println("Cannot skip the first or last commit.");
+                return null;
+            }
+        }
+        for (int id : plan.keySet()) {
+            if (!ids.contains(id)) {
+                System.out.println("Commit " + id + " is not being rebased.");
+                return null;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the History of a new repository in the working directory,
+     * cloned from the repository whose .gitlet directory is given, or
+     * null if it could not be cloned. Stored files never change once
+     * written, so they are hard-linked into the new .gitlet directory
+     * where possible, and only copied otherwise. The History itself is
+     * copied without staged files, cached file information, remotes or
+     * other working trees, and the source is added as the remote "origin".
+     * Files the source only reads through its alternates are linked or
+     * copied too, so the new repository does not depend on them.
+     * Finally, the files of the current Branch are copied to the working
+     * directory. If shared is true, no stored files are copied, and the
+     * new .gitlet directory lists the source in its alternates file
+     * instead, so the source must be kept.
+     */
+    public static History cloneFrom(String dir, boolean shared) {
+        History hist = Gitlet.readHistory(dir);
+        if (hist == null) {
+            return null;
+        }
+        Path source = Paths.get(dir);
+        Path target = Paths.get(".gitlet");
+        try {
+            Files.createDirectories(target);
+            if (shared) {
+                String path = source.toAbsolutePath().normalize().toString();
+                Files.write(target.resolve(ALTERNATES), Arrays.asList(path),
+                    StandardCharsets.UTF_8);
+            } else {
+                linkStored(source, target);
+                hist.linkBorrowed(target);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not copy the stored files: " + e.getMessage());
+            return null;
+        }
+
+        hist.dir = ".gitlet";
+        hist.worktrees.keySet().retainAll(Arrays.asList(MAIN_WORKTREE));
+        hist.add = new HashMap<String, String>();
+        hist.remove = new HashSet<String>();
+        hist.statCache = new HashMap<String, long[]>();
+        hist.watchToken = null;
+        hist.snapshot = null;
+        hist.remotes = new HashMap<String, String>();
+        hist.remotes.put("origin", dir);
+        Commit head = hist.current.getHead();
+        head.fileSet().parallelStream().forEach(file ->
+            hist.makeCopy(hist.blobFile(head.getFileCommit(file), file), new File(file)));
+        return hist;
+    }
+
+    /**
+     * Hard-links the stored files which the Commits of this History use
+     * but which it reads through its alternates into the given .gitlet
+     * directory where possible, and copies them otherwise.
+     */
+    private void linkBorrowed(Path target) throws IOException {
+        HashMap<Integer, HashSet<String>> owned = new HashMap<Integer, HashSet<String>>();
+        for (Commit commit : commits.values()) {
+            for (String file : commit.fileSet()) {
+                int owner = commit.getFileCommit(file);
+                owned.computeIfAbsent(owner, k -> new HashSet<String>()).add(file);
+            }
+        }
+        for (Map.Entry<Integer, HashSet<String>> entry : owned.entrySet()) {
+            for (String file : entry.getValue()) {
+                Path copy = target.resolve(entry.getKey() + "/" + file);
+                File shared = blobFile(entry.getKey(), file);
+                if (Files.exists(copy) || !shared.isFile()) {
+                    continue;
+                }
+                Files.createDirectories(copy.getParent());
+                try {
+                    Files.createLink(copy, shared.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(shared.toPath(), copy);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hard-links the stored files of the source .gitlet directory into the
+     * target .gitlet directory where possible, and copies them otherwise.
+     */
+    private static void linkStored(Path source, Path target) throws IOException {
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path relative = source.relativize(path);
+                if (relative.getNameCount() == 0
+                    || !relative.getName(0).toString().matches("\\d+")) {
+                    continue;
+                }
+                Path copy = target.resolve(relative);
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(copy);
+                } else {
+                    try {
+                        Files.createLink(copy, path);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        Files.copy(path, copy);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a remote with the given name for the repository whose .gitlet
+     * directory is at the given path.
+     */
+    public void addRemote(String name, String path) {
+        if (remotes.containsKey(name)) {
+            System.out.println("A remote with that name already exists.");
+            return;
+        }
+        remotes.put(name, path);
+    }
+
+    /**
+     * Copies the Commits of the Branch with the given name in the given
+     * remote which this repository does not have, along with the files
+     * they store, and points the Branch named "remote/branch" at its head.
+     * Returns the name of that Branch, or null if nothing was fetched.
+     */
+    public String fetch(String remote, String branch) {
+        String dir = remoteDir(remote);
+        if (dir == null) {
+            return null;
+        }
+        History other = Gitlet.readHistory(dir);
+        if (other == null) {
+            return null;
+        }
+        if (!other.branches.containsKey(branch)) {
+            System.out.println("That remote does not have that branch.");
+            return null;
+        }
+        Commit want = other.branches.get(branch).getHead();
+        if (!transfer(other, this, want)) {
+            return null;
+        }
+
+        Commit head = commits.get(uids.get(want.getUID()));
+        String name = remote + "/" + branch;
+        if (branches.containsKey(name)) {
+            branches.get(name).setHead(head);
+        } else {
+            branches.put(name, new Branch(name, head));
+        }
+        reachable(head);
+        return name;
+    }
+
+    /**
+     * Copies the Commits of the current Branch which the given remote
+     * does not have, along with the files they store, and points the
+     * Branch with the given name in the remote at the current head,
+     * creating it if needed. Only fast-forwards the remote Branch, so its
+     * head must be in the history of the current head, and refuses to
+     * move a Branch checked out in any working tree of the remote, which
+     * would be left stale. Returns true if the remote was changed.
+     */
+    public boolean push(String remote, String branch) {
+        String dir = remoteDir(remote);
+        if (dir == null) {
+            return false;
+        }
+        FileLock lock = Gitlet.lock(dir);
+        if (lock == null) {
+            return false;
+        }
+        try {
+            return pushTo(dir, branch);
+        } finally {
+            Gitlet.unlock(lock);
+        }
+    }
+
+    /**
+     * Pushes the current Branch to the Branch with the given name in the
+     * repository whose .gitlet directory is given, which must be locked.
+     * Returns true if the remote was changed.
+     */
+    private boolean pushTo(String dir, String branch) {
+        History other = Gitlet.readHistory(dir);
+        if (other == null) {
+            return false;
+        }
+        Commit head = current.getHead();
+        Branch target = other.branches.get(branch);
+        if (branch.equals(other.current.getName()) || other.checkedOutElsewhere(branch)) {
+            System.out.println("Cannot push to a branch checked out in the remote.");
+            return false;
+        }
+        if (target != null) {
+            Integer id = uids.get(target.getHead().getUID());
+            if (id == null || adopted.containsKey(id) || !reachable(head).contains(id)) {
+                System.out.println("Please pull down remote changes before pushing.");
+                return false;
+            }
+        }
+        if (!transfer(this, other, head)) {
+            return false;
+        }
+
+        Commit pushed = other.commits.get(other.uids.get(head.getUID()));
+        if (target == null) {
+            other.branches.put(branch, new Branch(branch, pushed));
+        } else {
+            target.setHead(pushed);
+        }
+        other.reachable(pushed);
+        Gitlet.writeHistory(other, dir);
+        return true;
+    }
+
+    /**
+     * Fetches the Branch with the given name from the given remote, then
+     * merges the fetched Branch into the current one.
+     */
+    public void pull(String remote, String branch) {
+        String name = fetch(remote, branch);
+        if (name != null) {
+            merge(Arrays.asList(name));
+        }
+    }
+
+    /**
+     * Returns the .gitlet directory of the remote with the given name, or
+     * null if there is no such remote or it has no repository.
+     */
+    private String remoteDir(String name) {
+        String dir = remotes.get(name);
+        if (dir == null || !new File(dir, "history.ser").isFile()) {
+            System.out.println("Remote directory not found.");
+            return null;
         }
-        if (dangerousOK()) {
-            if (split == curr) {
-                current.setHead(other);
-            } else {
-                Stack<Commit> commitsToRebase = new Stack<Commit>();
-                Commit ptr = curr;
-                while (ptr != split) {
-                    commitsToRebase.push(ptr);
-                    ptr = ptr.getPrevious();
+        return dir;
+    }
+
+    /**
+     * Returns the unique IDs of the Commits of this repository, leaving
+     * out those only known for their stored files.
+     */
+    private HashSet<String> knownCommits() {
+        HashSet<String> known = new HashSet<String>();
+        for (String uid : uids.keySet()) {
+            if (!adopted.containsKey(uids.get(uid))) {
+                known.add(uid);
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Returns the unique ID of the Commit with the given ID, or of the
+     * Commit whose stored files were copied to the given ID.
+     */
+    private String uidOf(int id) {
+        if (commits.containsKey(id)) {
+            return commits.get(id).getUID();
+        }
+        return adopted.get(id);
+    }
+
+    /**
+     * Copies the wanted Commit and its ancestors which the target History
+     * does not have, along with the files they store, from the source
+     * History to the target History.
+     * The Commits to copy are found by walking back from the wanted Commit
+     * until reaching one the target has. They are streamed as a bundle
+     * from a writer thread, which reads the source's files, through a pipe
+     * to the target, which stores them as they arrive, so nothing is
+     * copied twice or held in memory. Returns true unless it failed.
+     */
+    private static boolean transfer(History source, History target, Commit want) {
+        HashSet<String> known = target.knownCommits();
+        ArrayList<Commit> missing = new ArrayList<Commit>();
+        for (Commit commit = want; commit != null && !known.contains(commit.getUID());
+            commit = commit.getPrevious()) {
+            missing.add(commit);
+        }
+        if (missing.isEmpty()) {
+            return true;
+        }
+        Collections.reverse(missing);
+        return transfer(source, target, missing);
+    }
+
+    /**
+     * Copies the given Commits of the source History, oldest first, along
+     * with the files they store, to the target History, as a bundle
+     * streamed through a pipe from a writer thread. Returns true unless
+     * it failed.
+     */
+    private static boolean transfer(History source, History target, List<Commit> missing) {
+        HashSet<String> known = target.knownCommits();
+
+        IOException[] failure = new IOException[1];
+        PipedInputStream pipe = new PipedInputStream(1 << 16);
+        try {
+            PipedOutputStream sink = new PipedOutputStream(pipe);
+            Thread writer = new Thread(() -> {
+                try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(sink, 1 << 16))) {
+                    source.writeBundle(out, missing, known);
+                } catch (IOException e) {
+                    failure[0] = e;
                 }
-                Commit last = other;
+            });
+            writer.start();
+            try {
+                target.readBundle(new DataInputStream(new BufferedInputStream(pipe, 1 << 16)));
+            } finally {
+                // Closing the pipe first stops a writer blocked on a failed reader.
+                pipe.close();
+                writer.join();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Could not transfer commits: " + e.getMessage());
+            return false;
+        }
+        if (failure[0] != null) {
+            System.out.println("Could not transfer commits: " + failure[0].getMessage());
+            return false;
+        }
+        return true;
+    }
 
-                while (!commitsToRebase.empty()) {
-                    Commit oldCommit = commitsToRebase.pop();
-                    String message = oldCommit.getMessage();
-                    HashMap<String, Integer> files = oldCommit.fileMap();
-                    for (String file : last.fileSet()) {
-                        if (!files.containsKey(file)) {
-                            int lastCompSplit = 0;
-                            if (split.fileSet().contains(file)) {
-                                Commit lastFC = commits.get(last.getFileCommit(file));
-                                Commit splitFC = commits.get(split.getFileCommit(file));
-                                lastCompSplit = lastFC.compareTo(splitFC);
-                            }
-                            if (!split.fileSet().contains(file) || lastCompSplit > 0) {
-                                files.put(file, last.getFileCommit(file));
-                            }
-                        } else if (split.fileSet().contains(file)) {
-                            Commit oldFC = commits.get(oldCommit.getFileCommit(file));
-                            Commit lastFC = commits.get(last.getFileCommit(file));
-                            Commit splitFC = commits.get(split.getFileCommit(file));
-                            int lastCompSplit = lastFC.compareTo(splitFC);
-                            int oldCompSplit = oldFC.compareTo(splitFC);
-                            if (lastCompSplit > 0 && oldCompSplit == 0) {
-                                files.put(file, last.getFileCommit(file));
-                            }
-                        }
+    /**
+     * Writes a bundle of the given Commits, oldest first, to the given
+     * stream, along with their stored files.
+     * Files which the Commits share with Commits that are neither sent
+     * nor in the given Set of unique IDs known to the receiver, such as
+     * the Commits replaced by a rebase, are sent first by themselves.
+     */
+    private void writeBundle(DataOutputStream out, List<Commit> missing,
+        Set<String> known) throws IOException {
+        HashSet<Integer> sent = new HashSet<Integer>();
+        for (Commit commit : missing) {
+            sent.add(commit.getID());
+        }
+        TreeMap<Integer, TreeSet<String>> borrowed = new TreeMap<Integer, TreeSet<String>>();
+        for (Commit commit : missing) {
+            for (String file : commit.fileSet()) {
+                int id = commit.getFileCommit(file);
+                if (!sent.contains(id) && !known.contains(uidOf(id))) {
+                    if (!borrowed.containsKey(id)) {
+                        borrowed.put(id, new TreeSet<String>());
                     }
-                    Commit newCommit = new Commit(nextID, message, last, files);
-                    commits.put(nextID, newCommit);
-                    messages.get(message).add(newCommit);
-
-                    nextID += 1;
-                    last = newCommit;
+                    borrowed.get(id).add(file);
                 }
-                current.setHead(last);
             }
+        }
+
+        writeString(out, BUNDLE_HEADER);
+        out.writeInt(borrowed.size());
+        for (int id : borrowed.keySet()) {
+            writeString(out, uidOf(id));
+            out.writeInt(borrowed.get(id).size());
+            for (String file : borrowed.get(id)) {
+                writeString(out, file);
+                writeBlob(out, blobFile(id, file));
+            }
+        }
 
-            for (String file : current.getHead().fileSet()) {
-                int id = current.getHead().getFileCommit(file);
-                File source = new File(".gitlet/" + id + "/" + file);
-                File target = new File(file);
-                makeCopy(source, target);
+        out.writeInt(missing.size());
+        for (Commit commit : missing) {
+            writeString(out, commit.getUID());
+            writeString(out, commit.getMessage());
+            out.writeLong(commit.getDate().getTime());
+            writeString(out, commit.getPrevious() == null ? "" : commit.getPrevious().getUID());
+            ArrayList<String> stored = new ArrayList<String>();
+            out.writeInt(commit.fileSet().size());
+            for (String file : commit.fileSet()) {
+                int id = commit.getFileCommit(file);
+                writeString(out, file);
+                writeString(out, uidOf(id));
+                if (id == commit.getID()) {
+                    stored.add(file);
+                }
+            }
+            out.writeInt(stored.size());
+            for (String file : stored) {
+                String hash = commit.getHash(file);
+                writeString(out, file);
+                writeString(out, hash == null ? "" : hash);
+                writeBlob(out, blobFile(commit.getID(), file));
             }
         }
     }
 
     /**
-     * Recreates all the commits of the current Branch from the split
-     * point onwards onto the given Branch, if it exists. Interactively
-     * prompts the user whether to skip each Commit (they will be unable
-     * to skip the first and last ones) or whether to change the Commit message.
-     * Finally, it moves the head of the current Branch to the last newly
-     * created Commit. If the head of the current Branch is in the history
-     * of the given Branch, simply moves the head of the current Branch
-     * to the head of the given Branch.
+     * Reads a bundle written by writeBundle from the given stream, adding
+     * its Commits to this History with new IDs, or the IDs they had before
+     * the History was made shallow, and storing their files in its .gitlet
+     * directory as they arrive. A Commit whose previous Commit is unknown
+     * becomes a grafted root, and grafted roots whose previous Commit
+     * arrived are attached to it.
      */
-    public void iRebase(String name) {
-        if (!branches.containsKey(name)) {
-            System.out.println("A branch with that name does not exist.");
-            return;
-        } else if (name.equals(current.getName())) {
-            System.out.println("Cannot rebase a branch onto itself.");
-            return;
+    private void readBundle(DataInputStream in) throws IOException {
+        if (!readString(in).equals(BUNDLE_HEADER)) {
+            throw new IOException("not a bundle");
         }
-        Commit split = findSplit(current.getHead(), branches.get(name).getHead());
-        Commit other = branches.get(name).getHead();
-        Commit curr = current.getHead();
-        if (split == other) {
-            System.out.println("Already up-to-date.");
-            return;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String uid = readString(in);
+            Integer id = uids.get(uid);
+            if (id == null) {
+                id = nextID;
+                nextID += 1;
+                uids.put(uid, id);
+                adopted.put(id, uid);
+            }
+            int files = in.readInt();
+            for (int j = 0; j < files; j++) {
+                String file = readString(in);
+                readBlob(in, blobFile(dir, id, file));
+            }
         }
-        if (dangerousOK()) {
-            if (split == curr) {
-                current.setHead(other);
+
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String uid = readString(in);
+            String message = readString(in);
+            long time = in.readLong();
+            String previous = readString(in);
+            Integer old = pruned.remove(uid);
+            int id;
+            if (old != null) {
+                id = old;
+                adopted.remove(id);
             } else {
-                Stack<Commit> commitsToRebase = new Stack<Commit>();
-                Commit ptr = curr;
-                while (ptr != split) {
-                    commitsToRebase.push(ptr);
-                    ptr = ptr.getPrevious();
+                id = nextID;
+                nextID += 1;
+            }
+            uids.put(uid, id);
+
+            HashMap<String, Integer> files = new HashMap<String, Integer>();
+            int size = in.readInt();
+            for (int j = 0; j < size; j++) {
+                String file = readString(in);
+                String owner = readString(in);
+                if (!uids.containsKey(owner)) {
+                    throw new IOException("missing files of commit " + owner);
                 }
-                Commit last = other;
-                while (!commitsToRebase.empty()) {
-                    Commit oldCommit = commitsToRebase.pop();
-                    iRebasePrintCommit(oldCommit);
-                    String response = iRebasePrompt();
-                    while (response.equals("s")
-                        && (oldCommit.getPrevious() == split || commitsToRebase.empty())) {
-                        response = iRebasePrompt();
-                    }
-                    if (!response.equals("s")) {
-                        String message = oldCommit.getMessage();
-                        if (response.equals("m")) {
-                            message = iRebaseCommitMessage();
-                        }
-                        HashMap<String, Integer> files = oldCommit.fileMap();
-                        for (String file : last.fileSet()) {
-                            if (!files.containsKey(file)) {
-                                int lastCompSplit = 0;
-                                if (split.fileSet().contains(file)) {
-                                    Commit lastFC = commits.get(last.getFileCommit(file));
-                                    Commit splitFC = commits.get(split.getFileCommit(file));
-                                    lastCompSplit = lastFC.compareTo(splitFC);
-                                }
-                                if (!split.fileSet().contains(file) || lastCompSplit > 0) {
-                                    files.put(file, last.getFileCommit(file));
-                                }
-                            } else if (split.fileSet().contains(file)) {
-                                Commit oldFC = commits.get(oldCommit.getFileCommit(file));
-                                Commit lastFC = commits.get(last.getFileCommit(file));
-                                Commit splitFC = commits.get(split.getFileCommit(file));
-                                int lastCompSplit = lastFC.compareTo(splitFC);
-                                int oldCompSplit = oldFC.compareTo(splitFC);
-                                if (lastCompSplit > 0 && oldCompSplit == 0) {
-                                    files.put(file, last.getFileCommit(file));
-                                }
-                            }
-                        }
-                        Commit newCommit = new Commit(nextID, message, last, files);
-                        commits.put(nextID, newCommit);
-                        if (messages.containsKey(message)) {
-                            messages.get(message).add(newCommit);
-                        } else {
-                            HashSet<Commit> hs = new HashSet<Commit>();
-                            hs.add(newCommit);
-                            messages.put(message, hs);
-                        }
-                        nextID += 1;
-                        last = newCommit;
+                files.put(file, uids.get(owner));
+            }
+            HashMap<String, String> hashes = new HashMap<String, String>();
+            size = in.readInt();
+            for (int j = 0; j < size; j++) {
+                String file = readString(in);
+                String hash = readString(in);
+                if (!hash.isEmpty()) {
+                    hashes.put(file, hash);
+                }
+                readBlob(in, blobFile(dir, id, file));
+            }
+
+            Commit parent = previous.isEmpty() ? null : commits.get(uids.get(previous));
+            recordCommit(new Commit(id, uid, message, new Date(time), parent, files, hashes,
+                null));
+            if (parent == null && !previous.isEmpty()) {
+                grafts.put(id, previous);
+            }
+        }
+        attachGrafts();
+    }
+
+    /**
+     * Writes the length of the UTF-8 encoding of the given String to the
+     * given stream, followed by the encoding itself, which unlike
+     * writeUTF has no length limit.
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a String written by writeString from the given stream.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes the length of the given File to the given stream, followed
+     * by its contents.
+     */
+    private static void writeBlob(DataOutputStream out, File file) throws IOException {
+        out.writeLong(file.length());
+        Files.copy(file.toPath(), out);
+    }
+
+    /**
+     * Reads a File written by writeBlob from the given stream and stores
+     * it as the given File, creating any missing directories. The contents
+     * are written to a temporary file which is then moved into place, so
+     * an existing copy, which may be hard-linked into another repository,
+     * is replaced rather than rewritten.
+     */
+    private static void readBlob(DataInputStream in, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        long length = in.readLong();
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), ".", ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(temp.toFile()), 1 << 16)) {
+                byte[] buf = new byte[1 << 16];
+                while (length > 0) {
+                    int n = in.read(buf, 0, (int) Math.min(buf.length, length));
+                    if (n < 0) {
+                        throw new IOException("bundle ended early");
                     }
+                    out.write(buf, 0, n);
+                    length -= n;
                 }
-                current.setHead(last);
             }
-            copyCurrent();
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
         }
     }
 
     /**
      * Warns that a dangerous operation is about to take place.
-     * Return true if the user responds "yes" to the prompt.
+     * Return true if the user responds "yes" to the prompt, or
+     * without prompting if assumeYes was called.
      */
     private boolean dangerousOK() {
-        Scanner in = new Scanner(System.in);
+        if (assumeYes) {
+            return true;
+        }
         System.out.println("Warning: The command you entered may alter the files in your working "
             + "directory. Uncommitted changes may be lost. Are you sure you want to continue? "
             + "(yes/no)");
-        String response = in.nextLine();
+        String response = input().nextLine();
         return response.equals("yes");
     }
 
+    /**
+     * Makes dangerous operations go ahead without prompting for the
+     * rest of this run.
+     */
+    public void assumeYes() {
+        assumeYes = true;
+    }
+
+    /**
+     * Returns the Scanner reading answers from System.in, which is
+     * shared by all prompts so that no buffered input is lost.
+     */
+    private Scanner input() {
+        if (in == null) {
+            in = new Scanner(System.in);
+        }
+        return in;
+    }
+
+    /**
+     * Returns the stored copy of the given file from the Commit with
+     * the given ID. If this repository does not have it, the repositories
+     * listed in its alternates file are searched by the unique ID of the
+     * Commit, along with their own alternates, and a copy found there is
+     * returned instead. New files are always stored in this repository.
+     */
+    private File blobFile(int id, String file) {
+        return blobFile(id, file, MAX_ALTERNATE_DEPTH);
+    }
+
+    /**
+     * Returns the stored copy of the given file from the Commit with the
+     * given ID, searching alternates at most the given number of levels
+     * deep, or the missing local copy if it is not found.
+     */
+    private File blobFile(int id, String file, int depth) {
+        File local = blobFile(dir, id, file);
+        String uid = uidOf(id);
+        if (local.exists() || uid == null || depth == 0) {
+            return local;
+        }
+        for (History alternate : alternates()) {
+            Integer other = alternate.uids.get(uid);
+            if (other != null) {
+                File shared = alternate.blobFile(other, file, depth - 1);
+                if (shared.exists()) {
+                    return shared;
+                }
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Returns the Histories of the repositories whose .gitlet directories
+     * are listed in the alternates file, one per line, reading them the
+     * first time while holding their locks, unless this process already
+     * does. Relative paths are relative to the .gitlet directory.
+     */
+    private synchronized List<History> alternates() {
+        if (alternates == null) {
+            alternates = new ArrayList<History>();
+            File list = new File(dir, ALTERNATES);
+            if (!list.isFile()) {
+                return alternates;
+            }
+            try {
+                for (String line : Files.readAllLines(list.toPath(), StandardCharsets.UTF_8)) {
+                    String path = Paths.get(dir).resolve(line.trim()).toString();
+                    if (!line.trim().isEmpty() && new File(path, "history.ser").isFile()) {
+                        boolean held = Gitlet.holdsLock(path);
+                        FileLock lock = held ? null : Gitlet.lock(path);
+                        if (!held && lock == null) {
+                            continue;
+                        }
+                        try {
+                            History alternate = Gitlet.readHistory(path);
+                            if (alternate != null) {
+                                alternates.add(alternate);
+                            }
+                        } finally {
+                            Gitlet.unlock(lock);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Could not read the alternates file.");
+            }
+        }
+        return alternates;
+    }
+
+    /**
+     * Returns the stored copy of the given file from the Commit with
+     * the given ID in the given .gitlet directory.
+     */
+    private static File blobFile(String dir, int id, String file) {
+        return new File(dir + "/" + id + "/" + file);
+    }
+
+    /**
+     * Returns the copy of the given file made when it was staged.
+     */
+    private File stagedFile(String file) {
+        return new File(stateDir() + "/staging/" + file);
+    }
+
+    /**
+     * Returns the path of the directory holding the staged files of the
+     * selected working tree.
+     */
+    private String stateDir() {
+        if (worktree.equals(MAIN_WORKTREE)) {
+            return dir;
+        }
+        return dir + "/worktrees/" + worktree;
+    }
+
+    /**
+     * Returns the SHA-1 hash of the stored copy of the given file from
+     * the Commit with the given ID, or null if it is unknown.
+     */
+    private String blobHash(int id, String file) {
+        Commit owner = commits.get(id);
+        if (owner == null) {
+            return null;
+        }
+        return owner.getHash(file);
+    }
+
     /**
      * Attempts to copy the source File to the target File.
      * If the target is contained in a directory which does not
@@ -613,21 +2652,113 @@ public class History implements Serializable {
         return success;
     }
 
+    /**
+     * Deletes the given directory and everything in it, if it exists.
+     */
+    private static void deleteDirectory(File directory) {
+        File[] entries = directory.listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                deleteDirectory(entry);
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Adds the given Commit to the Commit tree, and to the message
+     * index used to look it up by its message.
+     */
+    private void recordCommit(Commit commit) {
+        commits.put(commit.getID(), commit);
+        uids.put(commit.getUID(), commit.getID());
+        index.add(commit.getID(), commit.getMessage());
+        paths.add(commit.getID(), commit.changedPaths());
+        times.add(commit.getDate().getTime(), commit.getID());
+    }
+
     /**
      * Returns the Commit which is the most recent common ancestor,
      * otherwise known as the splitting point, of the first and
-     * second Commits.
-     * WARNING: Will result in a NullPointerException if the first
-     * or second Commit is null.
+     * second Commits. Since every Commit has a larger ID than its
+     * previous Commit, this is the common ancestor with the largest ID.
+     * Returns null if they have none, which can happen in a shallow History.
      */
     private Commit findSplit(Commit first, Commit second) {
-        int val = first.compareTo(second);
-        if (val == 0) {
-            return first;
-        } else if (val > 0) {
-            return findSplit(first.getPrevious(), second);
+        return commits.get(reachable(first).and(reachable(second)).last());
+    }
+
+    /**
+     * Returns a bitmap of the IDs of the Commits reachable from the
+     * Commit named by to, but not from the Commit named by from, where
+     * each name is either a Branch name or a Commit ID. Returns null
+     * if either name does not refer to a Commit.
+     */
+    public CommitBitmap range(String from, String to) {
+        Commit start = resolve(from);
+        Commit end = resolve(to);
+        if (start == null || end == null) {
+            return null;
+        }
+        return reachable(end).andNot(reachable(start));
+    }
+
+    /**
+     * Returns the head of the Branch with the given name, or else the
+     * Commit with the given ID, or null if there is neither.
+     */
+    private Commit resolve(String name) {
+        if (branches.containsKey(name)) {
+            return branches.get(name).getHead();
+        }
+        try {
+            return commits.get(Integer.parseInt(name));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a bitmap of the IDs of the given Commit and all of its
+     * ancestors, which must not be modified. Only walks back to the
+     * nearest Commit whose bitmap is cached. The result is cached if
+     * the Commit is the head of a Branch, in which case cached bitmaps
+     * of Commits which are no longer the head of any Branch are either
+     * extended in place or dropped.
+     */
+    private CommitBitmap reachable(Commit commit) {
+        HashSet<Integer> heads = new HashSet<Integer>();
+        for (Branch branch : branches.values()) {
+            heads.add(branch.getHead().getID());
+        }
+
+        Stack<Integer> walked = new Stack<Integer>();
+        Commit ptr = commit;
+        while (ptr != null && !reach.containsKey(ptr.getID())) {
+            walked.push(ptr.getID());
+            ptr = ptr.getPrevious();
+        }
+        if (walked.empty()) {
+            return reach.get(commit.getID());
+        }
+
+        CommitBitmap result;
+        if (ptr == null) {
+            result = new CommitBitmap();
+        } else if (heads.contains(ptr.getID()) || !heads.contains(commit.getID())) {
+            result = reach.get(ptr.getID()).copy();
+        } else {
+            result = reach.remove(ptr.getID());
+        }
+        while (!walked.empty()) {
+            result.add(walked.pop());
+        }
+
+        if (heads.contains(commit.getID())) {
+            reach.put(commit.getID(), result);
+            reach.keySet().retainAll(heads);
         }
-        return findSplit(first, second.getPrevious());
+        return result;
     }
 
     /**
@@ -637,30 +2768,70 @@ public class History implements Serializable {
     private String iRebasePrompt() {
         System.out.println("Would you like to (c)ontinue, (s)kip this commit, "
             + "or change this commit's (m)essage?");
-        Scanner in = new Scanner(System.in);
-        String response = in.nextLine();
+        String response = input().nextLine();
         while (!response.equals("c") && !response.equals("s") && !response.equals("m")) {
             System.out.println("Would you like to (c)ontinue, (s)kip this commit, "
                 + "or change this commit's (m)essage?");
-            in = new Scanner(System.in);
-            response = in.nextLine();
+            response = input().nextLine();
         }
         return response;
     }
 
+    /**
+     * Creates a Commit with the given message on top of the given base,
+     * which replays the given changed files of the old Commit, and
+     * returns it. Each changed file gets the old Commit's copy, or is
+     * removed if the old Commit removed it, unless the other Commit
+     * being rebased onto changed it since the split point, in which case
+     * its copy is kept. Only the changed files are looked at.
+     */
+    private Commit replay(Commit base, Commit split, Commit other, Commit oldCommit,
+        Collection<String> changed, String message) {
+        HashMap<String, Integer> files = base.fileMap();
+        ArrayList<String> delta = new ArrayList<String>();
+        for (String file : changed) {
+            Integer before = files.get(file);
+            if (oldCommit.fileSet().contains(file)) {
+                files.put(file, oldCommit.getFileCommit(file));
+            } else if (!other.fileSet().contains(file) || (split.fileSet().contains(file)
+                && split.getFileCommit(file) == other.getFileCommit(file))) {
+                files.remove(file);
+            }
+            if (!Objects.equals(before, files.get(file))) {
+                delta.add(file);
+            }
+        }
+        Commit newCommit = new Commit(nextID, message, base, files,
+            new HashMap<String, String>(), delta);
+        recordCommit(newCommit);
+        nextID += 1;
+        return newCommit;
+    }
+
+    /**
+     * Copies the files of the second Commit which are not stored by the
+     * same Commit in the first Commit to the working directory, if they
+     * are in the sparse checkout.
+     */
+    private void copyChanged(Commit from, Commit to) {
+        for (String file : to.fileSet()) {
+            int id = to.getFileCommit(file);
+            if (inSparse(file)
+                && (!from.fileSet().contains(file) || from.getFileCommit(file) != id)) {
+                makeCopy(blobFile(id, file), new File(file));
+            }
+        }
+    }
+
     /**
      * Prints the data (commit id, message, time) of the given Commit
      * for replaying Commits.
      */
     private void iRebasePrintCommit(Commit curr) {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        System.out.println("Currently replaying:");
-        Date date = curr.getDate();
-        System.out.println("====");
-        System.out.println("Commit " + curr.getID() + ".");
-        System.out.println(dateFormat.format(date));
-        System.out.println(curr.getMessage());
-        System.out.println();
+        PrintWriter out = output();
+        out.println("Currently replaying:");
+        printCommit(out, curr);
+        out.flush();
     }
 
     /**
@@ -669,25 +2840,11 @@ public class History implements Serializable {
      */
     private String iRebaseCommitMessage() {
         System.out.println("Please enter a new message for this commit.");
-        Scanner in = new Scanner(System.in);
-        String message = in.nextLine();
+        String message = input().nextLine();
         while ("".equals(message.trim())) {
             System.out.println("Please enter a new message for this commit.");
-            in = new Scanner(System.in);
-            message = in.nextLine();
+            message = input().nextLine();
         }
         return message;
     }
-
-    /**
-     * Copies all files of the current Branch to the working directory.
-     */
-    private void copyCurrent() {
-        for (String file : current.getHead().fileSet()) {
-            int id = current.getHead().getFileCommit(file);
-            File source = new File(".gitlet/" + id + "/" + file);
-            File target = new File(file);
-            makeCopy(source, target);
-        }
-    }
 }
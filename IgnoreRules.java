@@ -0,0 +1,225 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Class that contains the rules of a .gitletignore file, compiled for
+ * matching paths quickly. Each line of the file is a gitignore-style
+ * glob: "#" starts a comment, a leading "!" re-includes what an earlier
+ * rule excluded, a trailing "/" only matches directories, and a pattern
+ * containing any other "/" is anchored to the working directory, while
+ * one without only matches names. "*" and "?" do not match "/", and
+ * "**" matches any number of directories. The last matching rule wins.
+ * Rules without wildcards are looked up in a trie of path segments or a
+ * map of names, and only the remaining ones are tried as patterns.
+ */
+public class IgnoreRules {
+    public static final String FILE = ".gitletignore";
+
+    private ArrayList<Rule> rules;
+    private TrieNode anchored;
+    private HashMap<String, List<Integer>> names;
+    private ArrayList<Integer> patterns;
+
+    /**
+     * Constructs IgnoreRules from the given lines of a .gitletignore file.
+     */
+    public IgnoreRules(List<String> lines) {
+        rules = new ArrayList<Rule>();
+        anchored = new TrieNode();
+        names = new HashMap<String, List<Integer>>();
+        patterns = new ArrayList<Integer>();
+        for (String line : lines) {
+            String text = line.replaceAll("\\s+$", "");
+            if (text.isEmpty() || text.startsWith("#")) {
+                continue;
+            }
+            Rule rule = new Rule();
+            if (text.startsWith("!")) {
+                rule.negate = true;
+                text = text.substring(1);
+            } else if (text.startsWith("\\")) {
+                text = text.substring(1);
+            }
+            if (text.endsWith("/")) {
+                rule.dirOnly = true;
+                text = text.substring(0, text.length() - 1);
+            }
+            boolean isAnchored = text.contains("/");
+            while (text.startsWith("/")) {
+                text = text.substring(1);
+            }
+            if (text.isEmpty()) {
+                continue;
+            }
+
+            int index = rules.size();
+            rules.add(rule);
+            boolean literal = !text.contains("*") && !text.contains("?") && !text.contains("[");
+            if (literal && isAnchored) {
+                TrieNode node = anchored;
+                for (String segment : text.split("/")) {
+                    node = node.child(segment);
+                }
+                node.rules.add(index);
+            } else if (literal) {
+                if (!names.containsKey(text)) {
+                    names.put(text, new ArrayList<Integer>());
+                }
+                names.get(text).add(index);
+            } else {
+                rule.anchored = isAnchored;
+                rule.pattern = Pattern.compile(toRegex(text));
+                patterns.add(index);
+            }
+        }
+    }
+
+    /**
+     * Returns the IgnoreRules of the .gitletignore file in the working
+     * directory, which are empty if there is no such file.
+     */
+    public static IgnoreRules load() {
+        try {
+            return new IgnoreRules(Files.readAllLines(Paths.get(FILE), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return new IgnoreRules(new ArrayList<String>());
+        }
+    }
+
+    /**
+     * Returns true if the given path is ignored by a rule, not counting
+     * rules which ignore one of its parent directories. This is meant
+     * for walks which do not descend into ignored directories.
+     */
+    public boolean matches(String path, boolean isDirectory) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int best = -1;
+
+        TrieNode node = anchored;
+        for (String segment : path.split("/")) {
+            node = node.children.get(segment);
+            if (node == null) {
+                break;
+            }
+        }
+        if (node != null) {
+            best = last(node.rules, best, isDirectory);
+        }
+        if (names.containsKey(name)) {
+            best = last(names.get(name), best, isDirectory);
+        }
+        for (int i = patterns.size() - 1; i >= 0 && patterns.get(i) > best; i--) {
+            Rule rule = rules.get(patterns.get(i));
+            if ((!rule.dirOnly || isDirectory)
+                && rule.pattern.matcher(rule.anchored ? path : name).matches()) {
+                best = patterns.get(i);
+            }
+        }
+        return best >= 0 && !rules.get(best).negate;
+    }
+
+    /**
+     * Returns true if the file with the given path, or any directory
+     * containing it, is ignored.
+     */
+    public boolean isIgnored(String path) {
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            if (matches(path.substring(0, slash), true)) {
+                return true;
+            }
+            slash = path.indexOf('/', slash + 1);
+        }
+        return matches(path, false);
+    }
+
+    /**
+     * Returns the largest of the given best rule index and the indices
+     * in the given list of rules which apply to the kind of path.
+     */
+    private int last(List<Integer> indices, int best, boolean isDirectory) {
+        for (int index : indices) {
+            if (index > best && (!rules.get(index).dirOnly || isDirectory)) {
+                best = index;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns a regular expression equivalent to the given glob.
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (glob.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 3;
+                continue;
+            } else if (glob.startsWith("/**", i) && i + 3 == glob.length()) {
+                regex.append("(?:/.*)?");
+                i += 3;
+                continue;
+            } else if (glob.startsWith("**", i)) {
+                regex.append(".*");
+                i += 2;
+                continue;
+            }
+            if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[' && glob.indexOf(']', i + 1) > i + 1) {
+                int end = glob.indexOf(']', i + 1);
+                String set = glob.substring(i + 1, end);
+                if (set.startsWith("!")) {
+                    set = "^" + set.substring(1);
+                }
+                regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                i = end;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+            i += 1;
+        }
+        return regex.toString();
+    }
+
+    /**
+     * Class that contains the options of a single rule, and its
+     * compiled pattern if it has wildcards.
+     */
+    private static class Rule {
+        private boolean negate;
+        private boolean dirOnly;
+        private boolean anchored;
+        private Pattern pattern;
+    }
+
+    /**
+     * Class that contains one segment of the trie of anchored rules
+     * without wildcards, with the rules ending at it.
+     */
+    private static class TrieNode {
+        private HashMap<String, TrieNode> children = new HashMap<String, TrieNode>();
+        private ArrayList<Integer> rules = new ArrayList<Integer>();
+
+        /**
+         * Returns the child for the given segment, creating it if needed.
+         */
+        TrieNode child(String segment) {
+            if (!children.containsKey(segment)) {
+                children.put(segment, new TrieNode());
+            }
+            return children.get(segment);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Class that provides a three-way line merge. Both sides are diffed
+ * against their common base, and the resulting Edits are walked in
+ * order of their position in the base. Edits made by only one side are
+ * applied as they are, while overlapping or adjacent Edits made by both
+ * sides become a conflict, unless both sides made the same change.
+ */
+public class Merge3 {
+    private List<String> base;
+    private List<String> ours;
+    private List<String> theirs;
+    private List<Diff.Edit> ourEdits;
+    private List<Diff.Edit> theirEdits;
+    private int conflicts;
+
+    /**
+     * Constructs a Merge3 of the given Lists of lines, where ours and
+     * theirs were both changed from base.
+     */
+    public Merge3(List<String> base, List<String> ours, List<String> theirs) {
+        this.base = base;
+        this.ours = ours;
+        this.theirs = theirs;
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        int[] baseIDs = Diff.toIDs(base, ids);
+        ourEdits = Diff.diff(baseIDs, Diff.toIDs(ours, ids));
+        theirEdits = Diff.diff(baseIDs, Diff.toIDs(theirs, ids));
+    }
+
+    /**
+     * Returns the merged lines, in which each conflict is written as
+     * both versions between conflict markers naming the given labels.
+     */
+    public List<String> merge(String ourLabel, String theirLabel) {
+        ArrayList<String> result = new ArrayList<String>();
+        conflicts = 0;
+        int i = 0;
+        int j = 0;
+        int pos = 0;
+        int ourDelta = 0;
+        int theirDelta = 0;
+        while (i < ourEdits.size() || j < theirEdits.size()) {
+            int lo = Math.min(start(ourEdits, i), start(theirEdits, j));
+            int hi = lo;
+            int ourFirst = i;
+            int theirFirst = j;
+            boolean grew = true;
+            while (grew) {
+                grew = false;
+                if (i < ourEdits.size() && ourEdits.get(i).getBeginA() <= hi) {
+                    hi = Math.max(hi, ourEdits.get(i).getEndA());
+                    i += 1;
+                    grew = true;
+                }
+                if (j < theirEdits.size() && theirEdits.get(j).getBeginA() <= hi) {
+                    hi = Math.max(hi, theirEdits.get(j).getEndA());
+                    j += 1;
+                    grew = true;
+                }
+            }
+
+            result.addAll(base.subList(pos, lo));
+            int ourStart = lo + ourDelta;
+            int theirStart = lo + theirDelta;
+            if (i > ourFirst) {
+                ourDelta = ourEdits.get(i - 1).getEndB() - ourEdits.get(i - 1).getEndA();
+            }
+            if (j > theirFirst) {
+                theirDelta = theirEdits.get(j - 1).getEndB() - theirEdits.get(j - 1).getEndA();
+            }
+            List<String> ourLines = ours.subList(ourStart, hi + ourDelta);
+            List<String> theirLines = theirs.subList(theirStart, hi + theirDelta);
+
+            if (j == theirFirst || ourLines.equals(theirLines)) {
+                result.addAll(ourLines);
+            } else if (i == ourFirst) {
+                result.addAll(theirLines);
+            } else {
+                conflicts += 1;
+                result.add("<<<<<<< " + ourLabel + "\n");
+                addTerminated(result, ourLines);
+                result.add("=======\n");
+                addTerminated(result, theirLines);
+                result.add(">>>>>>> " + theirLabel + "\n");
+            }
+            pos = hi;
+        }
+        result.addAll(base.subList(pos, base.size()));
+        return result;
+    }
+
+    /**
+     * Returns the number of conflicts found by the last call to merge.
+     */
+    public int conflicts() {
+        return conflicts;
+    }
+
+    /**
+     * Returns the position in the base of the Edit at the given index,
+     * or the largest int if there is no such Edit.
+     */
+    private static int start(List<Diff.Edit> edits, int index) {
+        return (index < edits.size()) ? edits.get(index).getBeginA() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Adds the given lines to the result, adding a line terminator to
+     * the last one if it has none, so that a conflict marker follows it.
+     */
+    private static void addTerminated(List<String> result, List<String> lines) {
+        for (String line : lines) {
+            result.add(line.endsWith("\n") ? line : line + "\n");
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class that contains the plan for merging one or more other Commits
+ * into the current Commit at once. The file maps of the current Commit,
+ * of each other Commit and of its split point with the current Commit
+ * are sorted and joined in a single pass, and each path is classified
+ * by comparing the IDs of the Commits storing its copies, and their
+ * hashes where they differ. The other Commits are considered in order,
+ * so each path ends up either unchanged, taken from a single stored
+ * copy, or merged line by line with the changes of some of the other
+ * Commits, and every changed file only needs to be written once.
+ */
+public class MergePlan {
+    private ArrayList<String> taken;
+    private ArrayList<String> conflicted;
+    private HashMap<String, Integer> sources;
+    private HashMap<String, ArrayList<Integer>> merges;
+    private int unchanged;
+    private int same;
+
+    /**
+     * Constructs the MergePlan for merging the other Commits into the
+     * current Commit, given their split points with the current Commit
+     * in the same order, and a map from IDs to all Commits, which is
+     * used to look up the hashes of stored files.
+     */
+    public MergePlan(Commit curr, List<Commit> splits, List<Commit> others,
+        Map<Integer, Commit> commits) {
+        taken = new ArrayList<String>();
+        conflicted = new ArrayList<String>();
+        sources = new HashMap<String, Integer>();
+        merges = new HashMap<String, ArrayList<Integer>>();
+        Cursor currFiles = new Cursor(curr);
+        Cursor[] splitFiles = new Cursor[splits.size()];
+        Cursor[] otherFiles = new Cursor[others.size()];
+        for (int i = 0; i < others.size(); i++) {
+            splitFiles[i] = new Cursor(splits.get(i));
+            otherFiles[i] = new Cursor(others.get(i));
+        }
+
+        String file = next(otherFiles);
+        while (file != null) {
+            int currID = currFiles.find(file);
+            int result = currID;
+            ArrayList<Integer> merged = new ArrayList<Integer>();
+            boolean changed = false;
+            for (int i = 0; i < otherFiles.length; i++) {
+                int otherID = otherFiles[i].find(file);
+                if (otherID < 0) {
+                    continue;
+                }
+                int splitID = splitFiles[i].find(file);
+                if (otherID == splitID) {
+                    continue;
+                }
+                changed = true;
+                if (!merged.isEmpty()) {
+                    merged.add(i);
+                } else if (result < 0 || result == splitID) {
+                    result = otherID;
+                } else if (result != otherID && !sameHash(commits, file, result, otherID)) {
+                    merged.add(i);
+                }
+            }
+
+            if (!changed) {
+                unchanged += 1;
+            } else if (!merged.isEmpty()) {
+                conflicted.add(file);
+                sources.put(file, result);
+                merges.put(file, merged);
+            } else if (result != currID) {
+                taken.add(file);
+                sources.put(file, result);
+            } else {
+                same += 1;
+            }
+            for (Cursor cursor : otherFiles) {
+                cursor.skip(file);
+            }
+            file = next(otherFiles);
+        }
+    }
+
+    /**
+     * Returns the files, in sorted order, whose copy should be taken
+     * from the Commit returned by getSource.
+     */
+    public List<String> getTaken() {
+        return taken;
+    }
+
+    /**
+     * Returns the files, in sorted order, to which the changes of the
+     * other Commits returned by getMerges must be merged line by line.
+     */
+    public List<String> getConflicted() {
+        return conflicted;
+    }
+
+    /**
+     * Returns the ID of the Commit storing the copy of the given taken
+     * or conflicted file to start from.
+     */
+    public int getSource(String file) {
+        return sources.get(file);
+    }
+
+    /**
+     * Returns the indices of the other Commits whose changes must be
+     * merged into the given conflicted file, in order.
+     */
+    public List<Integer> getMerges(String file) {
+        return merges.get(file);
+    }
+
+    /**
+     * Returns the number of files of the other Commits which none of
+     * them changed since its split point.
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * Returns the number of files which the other Commits only changed
+     * in ways the current Commit already has.
+     */
+    public int getSame() {
+        return same;
+    }
+
+    /**
+     * Returns the smallest next file of the given Cursors, or null if
+     * they are all exhausted.
+     */
+    private static String next(Cursor[] cursors) {
+        String smallest = null;
+        for (Cursor cursor : cursors) {
+            String file = cursor.peek();
+            if (file != null && (smallest == null || file.compareTo(smallest) < 0)) {
+                smallest = file;
+            }
+        }
+        return smallest;
+    }
+
+    /**
+     * Returns true if the copies of the file stored by the Commits with
+     * the two given IDs are known to have the same hash.
+     */
+    private static boolean sameHash(Map<Integer, Commit> commits, String file,
+        int first, int second) {
+        String hash = hashOf(commits, file, first);
+        return hash != null && hash.equals(hashOf(commits, file, second));
+    }
+
+    /**
+     * Returns the hash of the copy of the file stored by the Commit with
+     * the given ID, or null if it is unknown, as it is when the Commit
+     * was collected or its files were borrowed from another repository.
+     */
+    private static String hashOf(Map<Integer, Commit> commits, String file, int id) {
+        Commit owner = commits.get(id);
+        return (owner == null) ? null : owner.getHash(file);
+    }
+
+    /**
+     * Class that walks the files of a Commit in sorted order, looking up
+     * files in increasing order without going back.
+     */
+    private static class Cursor {
+        private Commit commit;
+        private String[] files;
+        private int pos;
+
+        /**
+         * Constructs a Cursor at the first file of the given Commit.
+         */
+        Cursor(Commit commit) {
+            this.commit = commit;
+            files = commit.fileSet().toArray(new String[0]);
+            Arrays.parallelSort(files);
+        }
+
+        /**
+         * Returns the next file, or null if there is none.
+         */
+        String peek() {
+            return (pos < files.length) ? files[pos] : null;
+        }
+
+        /**
+         * Returns the ID of the Commit storing the given file, or -1 if
+         * the Commit does not have it. The given file and later ones remain
+         * available, but earlier ones are skipped.
+         */
+        int find(String file) {
+            int i = pos;
+            while (i < files.length && files[i].compareTo(file) < 0) {
+                i += 1;
+            }
+            pos = i;
+            if (i < files.length && files[i].equals(file)) {
+                return commit.getFileCommit(file);
+            }
+            return -1;
+        }
+
+        /**
+         * Moves past the given file and any earlier ones.
+         */
+        void skip(String file) {
+            find(file);
+            if (pos < files.length && files[pos].equals(file)) {
+                pos += 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class that contains an inverted index from the tokens of Commit
+ * messages to the IDs of the Commits whose messages contain them.
+ * Tokens are lowercased runs of letters and digits, so "Fix JIRA-1234"
+ * is indexed under "fix", "jira" and "1234". Each token maps to a
+ * PostingList of Commit IDs.
+ */
+public class MessageIndex implements Serializable {
+    private TreeMap<String, PostingList> postings;
+
+    /**
+     * Constructs an empty MessageIndex.
+     */
+    public MessageIndex() {
+        postings = new TreeMap<String, PostingList>();
+    }
+
+    /**
+     * Adds the Commit with the given ID and message to the index.
+     */
+    public void add(int id, String message) {
+        for (String token : tokenize(message)) {
+            PostingList list = postings.get(token);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(token, list);
+            }
+            list.add(id);
+        }
+    }
+
+    /**
+     * Removes the Commits whose IDs are not set in the given BitSet, along
+     * with the tokens only they contained.
+     */
+    public void retain(BitSet keep) {
+        Iterator<PostingList> lists = postings.values().iterator();
+        while (lists.hasNext()) {
+            PostingList list = lists.next();
+            list.retain(keep);
+            if (list.isEmpty()) {
+                lists.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the IDs, in increasing order, of all Commits whose message
+     * contains the given token.
+     */
+    public int[] token(String token) {
+        PostingList list = postings.get(token.toLowerCase(Locale.ROOT));
+        if (list == null) {
+            return new int[0];
+        }
+        return list.toArray();
+    }
+
+    /**
+     * Returns the IDs, in increasing order, of all Commits whose message
+     * contains a token starting with the given prefix.
+     */
+    public int[] prefix(String prefix) {
+        String lower = prefix.toLowerCase(Locale.ROOT);
+        BitSet ids = new BitSet();
+        for (PostingList list : postings.subMap(lower, lower + Character.MAX_VALUE).values()) {
+            list.addTo(ids);
+        }
+        return PostingList.toArray(ids);
+    }
+
+    /**
+     * Returns the IDs, in increasing order, of all Commits whose message
+     * contains every token of the given text, which includes every Commit
+     * with exactly that message. Returns null if the text contains no
+     * tokens, in which case the index cannot narrow down the search.
+     */
+    public int[] all(String text) {
+        ArrayList<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        BitSet result = null;
+        for (String token : tokens) {
+            BitSet ids = new BitSet();
+            if (postings.containsKey(token)) {
+                postings.get(token).addTo(ids);
+            }
+            if (result == null) {
+                result = ids;
+            } else {
+                result.and(ids);
+            }
+        }
+        return PostingList.toArray(result);
+    }
+
+    /**
+     * Returns the IDs, in increasing order, of all Commits whose message
+     * might contain the given text, ignoring case. Every Commit whose
+     * message does contain it is returned, but the caller must check
+     * the messages of the returned Commits to rule out false positives.
+     * Returns null if the text contains no tokens, in which case the
+     * index cannot narrow down the search.
+     */
+    public int[] candidates(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        ArrayList<String> tokens = tokenize(lower);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        boolean openStart = isTokenChar(lower.charAt(0));
+        boolean openEnd = isTokenChar(lower.charAt(lower.length() - 1));
+
+        BitSet result = null;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            boolean first = (i == 0 && openStart);
+            boolean last = (i == tokens.size() - 1 && openEnd);
+            BitSet ids = new BitSet();
+            if (first && last) {
+                for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                    if (entry.getKey().contains(token)) {
+                        entry.getValue().addTo(ids);
+                    }
+                }
+            } else if (first) {
+                for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+                    if (entry.getKey().endsWith(token)) {
+                        entry.getValue().addTo(ids);
+                    }
+                }
+            } else if (last) {
+                for (PostingList list
+                    : postings.subMap(token, token + Character.MAX_VALUE).values()) {
+                    list.addTo(ids);
+                }
+            } else if (postings.containsKey(token)) {
+                postings.get(token).addTo(ids);
+            }
+
+            if (result == null) {
+                result = ids;
+            } else {
+                result.and(ids);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return PostingList.toArray(result);
+    }
+
+    /**
+     * Returns the lowercased tokens of the given message, in order.
+     */
+    private static ArrayList<String> tokenize(String message) {
+        ArrayList<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= message.length(); i++) {
+            boolean inToken = (i < message.length() && isTokenChar(message.charAt(i)));
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                tokens.add(message.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns true if the given character can be part of a token.
+     */
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+}
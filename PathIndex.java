@@ -0,0 +1,69 @@
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Class that contains an index from file paths to the IDs of the
+ * Commits which added, changed or removed them, relative to their
+ * previous Commit.
+ */
+public class PathIndex implements Serializable {
+    private HashMap<String, PostingList> postings;
+
+    /**
+     * Constructs an empty PathIndex.
+     */
+    public PathIndex() {
+        postings = new HashMap<String, PostingList>();
+    }
+
+    /**
+     * Records that the Commit with the given ID changed the given paths.
+     */
+    public void add(int id, Collection<String> paths) {
+        for (String path : paths) {
+            PostingList list = postings.get(path);
+            if (list == null) {
+                list = new PostingList();
+                postings.put(path, list);
+            }
+            list.add(id);
+        }
+    }
+
+    /**
+     * Removes the Commits whose IDs are not set in the given BitSet, along
+     * with the paths only they changed.
+     */
+    public void retain(BitSet keep) {
+        Iterator<PostingList> lists = postings.values().iterator();
+        while (lists.hasNext()) {
+            PostingList list = lists.next();
+            list.retain(keep);
+            if (list.isEmpty()) {
+                lists.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns true if any Commit has changed the given path.
+     */
+    public boolean contains(String path) {
+        return postings.containsKey(path);
+    }
+
+    /**
+     * Returns the IDs, in increasing order, of all Commits which
+     * changed the given path.
+     */
+    public int[] commits(String path) {
+        PostingList list = postings.get(path);
+        if (list == null) {
+            return new int[0];
+        }
+        return list.toArray();
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.Serializable;
+import java.util.BitSet;
+
+/**
+ * Class that contains a sorted list of Commit IDs, compressed by
+ * storing the gap between consecutive IDs as a variable length
+ * integer of seven bits per byte. Since Commit IDs are handed out
+ * in increasing order, new IDs are almost always appended.
+ */
+public class PostingList implements Serializable {
+    private byte[] data;
+    private int length;
+    private int last;
+
+    /**
+     * Constructs an empty PostingList.
+     */
+    public PostingList() {
+        data = new byte[4];
+        length = 0;
+        last = -1;
+    }
+
+    /**
+     * Appends the given ID to the list. IDs are expected in increasing
+     * order; an ID which is not larger than the last one causes the
+     * list to be re-encoded.
+     */
+    public void add(int id) {
+        if (id == last) {
+            return;
+        }
+        if (id < last) {
+            BitSet ids = new BitSet();
+            addTo(ids);
+            ids.set(id);
+            length = 0;
+            last = -1;
+            for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+                add(i);
+            }
+            return;
+        }
+        int gap = id - last;
+        while (length + 5 > data.length) {
+            byte[] bigger = new byte[data.length * 2];
+            System.arraycopy(data, 0, bigger, 0, length);
+            data = bigger;
+        }
+        while (gap >= 0x80) {
+            data[length] = (byte) ((gap & 0x7f) | 0x80);
+            length += 1;
+            gap >>>= 7;
+        }
+        data[length] = (byte) gap;
+        length += 1;
+        last = id;
+    }
+
+    /**
+     * Removes the IDs which are not set in the given BitSet.
+     */
+    public void retain(BitSet keep) {
+        BitSet ids = new BitSet();
+        addTo(ids);
+        ids.and(keep);
+        length = 0;
+        last = -1;
+        for (int i = ids.nextSetBit(0); i >= 0; i = ids.nextSetBit(i + 1)) {
+            add(i);
+        }
+    }
+
+    /**
+     * Returns true if the list contains no IDs.
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Sets the bit of every ID in this list in the given BitSet.
+     */
+    public void addTo(BitSet ids) {
+        int pos = 0;
+        int id = -1;
+        while (pos < length) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos];
+                pos += 1;
+                gap |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            id += gap;
+            ids.set(id);
+        }
+    }
+
+    /**
+     * Returns the IDs of this list as a sorted array.
+     */
+    public int[] toArray() {
+        BitSet ids = new BitSet();
+        addTo(ids);
+        return toArray(ids);
+    }
+
+    /**
+     * Returns the set bits of the given BitSet as a sorted array.
+     */
+    public static int[] toArray(BitSet ids) {
+        int[] result = new int[ids.cardinality()];
+        int i = 0;
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            result[i] = id;
+            i += 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Class that contains the IDs of Commits sorted by the time they were
+ * made, with ties broken by ID. Since Commits are made in order, new
+ * entries are almost always appended to the end.
+ */
+public class TimeIndex implements Serializable {
+    private long[] times;
+    private int[] ids;
+    private int size;
+
+    /**
+     * Constructs an empty TimeIndex.
+     */
+    public TimeIndex() {
+        times = new long[16];
+        ids = new int[16];
+        size = 0;
+    }
+
+    /**
+     * Adds the Commit with the given time, in milliseconds, and ID.
+     */
+    public void add(long time, int id) {
+        if (size == ids.length) {
+            times = Arrays.copyOf(times, size * 2);
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        int pos = position(time, id);
+        System.arraycopy(times, pos, times, pos + 1, size - pos);
+        System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+        times[pos] = time;
+        ids[pos] = id;
+        size += 1;
+    }
+
+    /**
+     * Removes the entries of the Commits whose IDs are not set in the
+     * given BitSet, keeping the rest in order.
+     */
+    public void retain(BitSet keep) {
+        int kept = 0;
+        for (int pos = 0; pos < size; pos++) {
+            if (keep.get(ids[pos])) {
+                times[kept] = times[pos];
+                ids[kept] = ids[pos];
+                kept += 1;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Returns the number of entries in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the time of the entry at the given position.
+     */
+    public long getTime(int pos) {
+        return times[pos];
+    }
+
+    /**
+     * Returns the Commit ID of the entry at the given position.
+     */
+    public int getID(int pos) {
+        return ids[pos];
+    }
+
+    /**
+     * Returns the position of the first entry which is not earlier than
+     * the given time and ID, or the size of the index if there is none.
+     */
+    public int position(long time, int id) {
+        if (size == 0 || compare(size - 1, time, id) < 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(mid, time, id) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compares the entry at the given position with the given time and ID.
+     */
+    private int compare(int pos, long time, int id) {
+        if (times[pos] != time) {
+            return (times[pos] < time) ? -1 : 1;
+        }
+        return Integer.compare(ids[pos], id);
+    }
+}
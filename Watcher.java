@@ -0,0 +1,317 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class that provides a filesystem watcher which records every path
+ * changed in the working directory in a journal, and methods for
+ * reading the paths changed since a given token. A token is the epoch
+ * of the running watcher followed by an offset into its journal, and
+ * is no longer valid once that watcher stops.
+ */
+public class Watcher {
+    private static final String JOURNAL = ".gitlet/fsmonitor.journal";
+    private static final String ALIVE = ".gitlet/fsmonitor.alive";
+    private static final String STOP = ".gitlet/fsmonitor.stop";
+    private static final String COOKIE = "fsmonitor.cookie";
+    private static final String OVERFLOW = "!overflow";
+    private static final long HEARTBEAT_MILLIS = 1000;
+    private static final long MAX_JOURNAL = 64L << 20;
+    private static final long COOKIE_WAIT_MILLIS = 2000;
+
+    /**
+     * Runs the watcher until it is stopped. Starts a new journal, then
+     * appends the path of every created, modified or deleted file or
+     * directory to it, registering new directories as they appear.
+     * Paths ignored by the .gitletignore file are neither watched nor
+     * journaled. When the .gitletignore file changes, its rules are
+     * reloaded and an overflow is journaled, since earlier changes to
+     * newly included paths were not seen.
+     */
+    public static void run() {
+        new File(STOP).delete();
+        try (WatchService service = Paths.get(".").getFileSystem().newWatchService()) {
+            HashMap<WatchKey, Path> dirs = new HashMap<WatchKey, Path>();
+            OutputStream journal = startJournal();
+            dirs.put(Paths.get(".gitlet").register(service,
+                StandardWatchEventKinds.ENTRY_CREATE), Paths.get(".gitlet"));
+            IgnoreRules ignore = IgnoreRules.load();
+            register(Paths.get("."), service, dirs, ignore, null);
+            File alive = new File(ALIVE);
+            alive.createNewFile();
+            long lastBeat = 0;
+
+            while (!new File(STOP).exists()) {
+                if (System.currentTimeMillis() - lastBeat >= HEARTBEAT_MILLIS) {
+                    alive.setLastModified(System.currentTimeMillis());
+                    lastBeat = System.currentTimeMillis();
+                }
+                WatchKey key = service.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    continue;
+                }
+                Path dir = dirs.get(key);
+                StringBuilder lines = new StringBuilder();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        lines.append(OVERFLOW).append('\n');
+                        continue;
+                    }
+                    Path path = dir.resolve((Path) event.context());
+                    String name = WorkingTree.relative(path);
+                    if (name.startsWith(".gitlet/")) {
+                        if (path.getFileName().toString().startsWith(COOKIE)) {
+                            lines.append('#').append(path.getFileName()).append('\n');
+                        }
+                        continue;
+                    }
+                    if (name.equals(IgnoreRules.FILE)) {
+                        ignore = IgnoreRules.load();
+                        register(Paths.get("."), service, dirs, ignore, null);
+                        lines.append(OVERFLOW).append('\n');
+                    }
+                    if (ignore.isIgnored(name)) {
+                        continue;
+                    }
+                    lines.append(name).append('\n');
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        register(path, service, dirs, ignore, lines);
+                    }
+                }
+                if (!key.reset()) {
+                    dirs.remove(key);
+                }
+                journal.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                journal.flush();
+                if (new File(JOURNAL).length() > MAX_JOURNAL) {
+                    journal.close();
+                    journal = startJournal();
+                }
+            }
+            journal.close();
+        } catch (IOException e) {
+            System.out.println("The watcher stopped: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println("The watcher was interrupted.");
+        } finally {
+            new File(ALIVE).delete();
+            new File(STOP).delete();
+        }
+    }
+
+    /**
+     * Asks the running watcher, if there is one, to stop.
+     */
+    public static void stop() {
+        if (!isRunning()) {
+            System.out.println("No watcher is running.");
+            return;
+        }
+        try {
+            new File(STOP).createNewFile();
+        } catch (IOException e) {
+            System.out.println("Could not stop the watcher.");
+        }
+    }
+
+    /**
+     * Returns a token for the current end of the journal, or null if no
+     * watcher is running. All changes made before this call are either
+     * before the token, or were already journaled.
+     */
+    public static String token() {
+        if (!sync()) {
+            return null;
+        }
+        String epoch = epoch();
+        if (epoch == null) {
+            return null;
+        }
+        return epoch + ":" + completeLength();
+    }
+
+    /**
+     * Returns the paths changed after the given token, or null if they
+     * are unknown because no watcher is running, the watcher was
+     * restarted since the token was made, or it lost events.
+     */
+    public static HashSet<String> changedSince(String token) {
+        if (token == null || !sync()) {
+            return null;
+        }
+        int colon = token.lastIndexOf(':');
+        if (colon < 0 || !token.substring(0, colon).equals(epoch())) {
+            return null;
+        }
+
+        String text;
+        try {
+            text = readFrom(Long.parseLong(token.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (text == null) {
+            return null;
+        }
+
+        HashSet<String> changed = new HashSet<String>();
+        for (String line : text.split("\n")) {
+            if (line.equals(OVERFLOW)) {
+                return null;
+            } else if (!line.isEmpty() && !line.startsWith("#")) {
+                changed.add(line);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns true if a watcher is running, judging by its heartbeat.
+     */
+    private static boolean isRunning() {
+        File alive = new File(ALIVE);
+        return alive.exists()
+            && System.currentTimeMillis() - alive.lastModified() < 3 * HEARTBEAT_MILLIS;
+    }
+
+    /**
+     * Creates a cookie file in the .gitlet directory and waits for the
+     * watcher to journal it, so that every change made before this call
+     * has been journaled too. Returns false if no watcher is running or
+     * the cookie did not show up in time.
+     */
+    private static boolean sync() {
+        if (!isRunning()) {
+            return false;
+        }
+        File cookie = new File(".gitlet/" + COOKIE + "." + System.nanoTime());
+        long offset = completeLength();
+        try {
+            cookie.createNewFile();
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < COOKIE_WAIT_MILLIS) {
+                String text = readFrom(offset);
+                if (text == null) {
+                    return false;
+                }
+                if (text.contains("#" + cookie.getName() + "\n")) {
+                    return true;
+                }
+                Thread.sleep(5);
+            }
+        } catch (IOException | InterruptedException e) {
+            return false;
+        } finally {
+            cookie.delete();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the complete lines of the journal after the given offset,
+     * or null if the journal cannot be read or is shorter than that.
+     */
+    private static String readFrom(long offset) {
+        try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r")) {
+            long end = completeLength();
+            if (offset > end) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) (end - offset)];
+            in.seek(offset);
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the epoch recorded on the first line of the journal, or
+     * null if there is no journal.
+     */
+    private static String epoch() {
+        try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r")) {
+            return in.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the length of the journal up to the end of its last
+     * complete line.
+     */
+    private static long completeLength() {
+        try (RandomAccessFile in = new RandomAccessFile(JOURNAL, "r")) {
+            long pos = in.length();
+            while (pos > 0) {
+                in.seek(pos - 1);
+                if (in.read() == '\n') {
+                    return pos;
+                }
+                pos -= 1;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces the journal with a new one for a new epoch, and returns
+     * a stream for appending to it.
+     */
+    private static OutputStream startJournal() throws IOException {
+        OutputStream journal = new FileOutputStream(JOURNAL, false);
+        journal.write(("epoch " + System.nanoTime() + "\n").getBytes(StandardCharsets.UTF_8));
+        journal.flush();
+        return journal;
+    }
+
+    /**
+     * Registers the given directory and its subdirectories with the
+     * WatchService, skipping .gitlet directories and ignored paths.
+     * If lines is not null,
+     * also appends the paths of everything found, since files created in
+     * a new directory before it was registered would otherwise be missed.
+     */
+    private static void register(Path dir, WatchService service,
+        HashMap<WatchKey, Path> dirs, IgnoreRules ignore, StringBuilder lines)
+        throws IOException {
+        dirs.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                boolean isDirectory = Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS);
+                String name = WorkingTree.relative(entry);
+                if (entry.getFileName().toString().equals(".gitlet")
+                    || ignore.matches(name, isDirectory)) {
+                    continue;
+                }
+                if (lines != null) {
+                    lines.append(name).append('\n');
+                }
+                if (isDirectory) {
+                    register(entry, service, dirs, ignore, lines);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Class that provides methods for scanning the files of the working
+ * directory, and comparing, hashing and copying them.
+ */
+public class WorkingTree {
+
+    /**
+     * Returns a HashMap mapping the path of every file in the given
+     * directory and its subdirectories, relative to the working directory,
+     * to its size and last modified time in milliseconds. Directories
+     * are walked in parallel. .gitlet directories and paths ignored by
+     * the .gitletignore file are skipped, without descending into
+     * ignored directories.
+     */
+    public static HashMap<String, long[]> scan(String dir) {
+        ConcurrentHashMap<String, long[]> files = new ConcurrentHashMap<String, long[]>();
+        Path root = Paths.get(dir.isEmpty() ? "." : dir);
+        if (Files.isDirectory(root)) {
+            ForkJoinPool.commonPool().invoke(new ScanTask(root, IgnoreRules.load(), files));
+        }
+        return new HashMap<String, long[]>(files);
+    }
+
+    /**
+     * Returns the size and last modified time in milliseconds of the
+     * file at the given path, or null if it is not a regular file.
+     */
+    public static long[] stat(String path) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(Paths.get(path),
+                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            return new long[] {attrs.size(), attrs.lastModifiedTime().toMillis()};
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the two files have the same contents. The files
+     * are compared in chunks, without reading either one into memory.
+     */
+    public static boolean sameContent(File first, File second) {
+        if (first.length() != second.length()) {
+            return false;
+        }
+        try (InputStream a = new FileInputStream(first);
+            InputStream b = new FileInputStream(second)) {
+            byte[] bufA = new byte[1 << 16];
+            byte[] bufB = new byte[1 << 16];
+            int n;
+            while ((n = a.read(bufA)) > 0) {
+                int read = 0;
+                while (read < n) {
+                    int m = b.read(bufB, read, n - read);
+                    if (m < 0) {
+                        return false;
+                    }
+                    read += m;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (bufA[i] != bufB[i]) {
+                        return false;
+                    }
+                }
+            }
+            return b.read() < 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the source File to the target File, creating any missing
+     * directories, and returns the SHA-1 hash of its contents computed
+     * while copying. Returns null if the file could not be copied.
+     */
+    public static String copyAndHash(File source, File target) {
+        File dir = target.getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+        try (InputStream in = new FileInputStream(source);
+            OutputStream out = new FileOutputStream(target)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+                out.write(buf, 0, n);
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the SHA-1 hash of the contents of the given File, read in
+     * chunks, or null if it could not be read.
+     */
+    public static String hash(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                digest.update(buf, 0, n);
+            }
+            return toHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the given bytes as a String of hexadecimal digits.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Returns the given Path as a String relative to the working
+     * directory, with forward slashes as separators.
+     */
+    public static String relative(Path path) {
+        String result = path.normalize().toString().replace(File.separatorChar, '/');
+        while (result.startsWith("./")) {
+            result = result.substring(2);
+        }
+        return result;
+    }
+
+    /**
+     * Class that lists the files of one directory, forking a new task
+     * for each of its subdirectories.
+     */
+    private static class ScanTask extends RecursiveAction {
+        private Path dir;
+        private IgnoreRules ignore;
+        private ConcurrentHashMap<String, long[]> files;
+
+        /**
+         * Constructs a ScanTask for the given directory, which adds the
+         * files it finds and does not ignore to the given map.
+         */
+        ScanTask(Path dir, IgnoreRules ignore, ConcurrentHashMap<String, long[]> files) {
+            this.dir = dir;
+            this.ignore = ignore;
+            this.files = files;
+        }
+
+        /**
+         * Lists the directory and scans its subdirectories in parallel.
+         */
+        protected void compute() {
+            ArrayList<ScanTask> subtasks = new ArrayList<ScanTask>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    if (entry.getFileName().toString().equals(".gitlet")) {
+                        continue;
+                    }
+                    BasicFileAttributes attrs = Files.readAttributes(entry,
+                        BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    String path = relative(entry);
+                    if (ignore.matches(path, attrs.isDirectory())) {
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        subtasks.add(new ScanTask(entry, ignore, files));
+                    } else if (attrs.isRegularFile()) {
+                        files.put(path,
+                            new long[] {attrs.size(), attrs.lastModifiedTime().toMillis()});
+                    }
+                }
+            } catch (IOException e) {
+                return;
+            }
+            invokeAll(subtasks);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.TreeMap;
+
+/**
+ * Class that contains the state of one working tree of a repository:
+ * the directory it is in, the name of its current Branch, the files it
+ * has staged or marked for removal, and the file information cached for
+ * its status. Every working tree shares the Commits, Branches and stored
+ * files of the repository.
+ */
+public class WorktreeState implements Serializable {
+    private String path;
+    private String branch;
+    private HashMap<String, String> add;
+    private HashSet<String> remove;
+    private HashMap<String, long[]> statCache;
+    private String watchToken;
+    private TreeMap<String, long[]> snapshot;
+
+    /**
+     * Constructs the WorktreeState of a new working tree in the directory
+     * with the given path, on the Branch with the given name, with nothing
+     * staged.
+     */
+    public WorktreeState(String path, String branch) {
+        this.path = path;
+        this.branch = branch;
+        add = new HashMap<String, String>();
+        remove = new HashSet<String>();
+        statCache = new HashMap<String, long[]>();
+    }
+
+    /**
+     * Records the given state of the working tree.
+     */
+    public void update(String branch, HashMap<String, String> add, HashSet<String> remove,
+        HashMap<String, long[]> statCache, String watchToken,
+        TreeMap<String, long[]> snapshot) {
+        this.branch = branch;
+        this.add = add;
+        this.remove = remove;
+        this.statCache = statCache;
+        this.watchToken = watchToken;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the path of the directory of the working tree.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the name of the current Branch of the working tree.
+     */
+    public String getBranch() {
+        return branch;
+    }
+
+    /**
+     * Returns a HashMap mapping the staged files to their hashes.
+     */
+    public HashMap<String, String> getAdd() {
+        return add;
+    }
+
+    /**
+     * Returns the files marked for removal.
+     */
+    public HashSet<String> getRemove() {
+        return remove;
+    }
+
+    /**
+     * Returns a HashMap mapping files last found unmodified to their
+     * size, modification time and the ID of the Commit storing them.
+     */
+    public HashMap<String, long[]> getStatCache() {
+        return statCache;
+    }
+
+    /**
+     * Returns the watcher token of the last scan of the working tree.
+     */
+    public String getWatchToken() {
+        return watchToken;
+    }
+
+    /**
+     * Returns the files found by the last scan of the working tree.
+     */
+    public TreeMap<String, long[]> getSnapshot() {
+        return snapshot;
+    }
+}
@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+/**
+ * Class that provides a benchmark of merging. Builds a repository in
+ * the working directory with a given number of files (10,000 by
+ * default), and two branches which each change a third of them,
+ * overlapping on a tenth where both change different lines, then
+ * prints how long the merge command takes, including writing the
+ * merged files. It must be run in an empty directory, with the
+ * compiled Gitlet classes on the classpath, and is not part of Gitlet
+ * itself.
+ */
+public class MergeBenchmark {
+    private static final int ROUNDS = 5;
+
+    /**
+     * Runs the benchmark, with the number of files given as the only
+     * optional argument.
+     */
+    public static void main(String[] args) throws IOException {
+        int size = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+        if (new File(".gitlet").exists()) {
+            System.out.println("Run the benchmark in an empty directory.");
+            return;
+        }
+        ArrayList<String> files = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            String file = "dir" + (i % 100) + "/file" + i + ".txt";
+            files.add(file);
+            write(file, "first " + i, "middle " + i, "last " + i);
+        }
+        gitlet("init");
+        gitlet(files, "add");
+        gitlet("commit", "split");
+        gitlet("branch", "other");
+
+        ArrayList<String> changed = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            if (i % 3 == 0 || i % 10 == 0) {
+                write(files.get(i), "first " + i + " changed", "middle " + i, "last " + i);
+                changed.add(files.get(i));
+            }
+        }
+        gitlet(changed, "add");
+        gitlet("commit", "current");
+        gitlet("--yes", "checkout", "other");
+        changed.clear();
+        for (int i = 0; i < size; i++) {
+            if (i % 3 == 1 || i % 10 == 0) {
+                write(files.get(i), "first " + i, "middle " + i, "last " + i + " changed");
+                changed.add(files.get(i));
+            }
+        }
+        gitlet(changed, "add");
+        gitlet("commit", "other");
+        gitlet("--yes", "checkout", "master");
+
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            gitlet("--yes", "merge", "other");
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("Merged " + size + " files in " + (best / 1000000.0)
+            + " ms (best of " + ROUNDS + ").");
+    }
+
+    /**
+     * Runs Gitlet with the given arguments.
+     */
+    private static void gitlet(String... args) {
+        Gitlet.main(args);
+    }
+
+    /**
+     * Runs Gitlet with the given command followed by the given files.
+     */
+    private static void gitlet(ArrayList<String> files, String command) {
+        ArrayList<String> args = new ArrayList<String>();
+        args.add(command);
+        args.addAll(files);
+        Gitlet.main(args.toArray(new String[0]));
+    }
+
+    /**
+     * Writes the given lines to the file with the given name, creating
+     * its directory if needed.
+     */
+    private static void write(String name, String... lines) throws IOException {
+        File file = new File(name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), String.join("\n", lines).concat("\n")
+            .getBytes(StandardCharsets.UTF_8));
+    }
+}